@@ -0,0 +1,304 @@
+package adj.felix.java.patterns.ch02.structure;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FemaleFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Filter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FilterAnd;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FilterOr;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.MaleFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.MarriedFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Person;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.SingleFilter;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.AndCriteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.Attribute;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.AttributeCriteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.Criteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.NotCriteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.OrCriteria;
+
+/**
+ * <pre>
+ * ~~~~ <b>过滤器模式之位图索引</b> ~~~~
+ * 以列存储人员数据, 性别、婚姻状况等低基数属性做字典编码, 并为每个取值维护一个位图(第i位表示第i行是否取该值)。
+ * 01. 查询
+ *     过滤器先经{@link PredicateFilterPattern#compile(Filter)}编译为谓词树, 再按位图求值:
+ *     属性条件取对应位图, AND/OR/NOT为逐个long字的与/或/非运算, 一次处理64行, 不访问任何Person对象。
+ * 02. 存储
+ *     (1) 属性列: 每行一个字节的字典编号, 字典保存原始值, 至多255个; null不占用编号, 也不出现在任何位图中。
+ *         查询按大写值匹配(与equalsIgnoreCase的语义一致), 同一值有多种大小写时合并各自的位图。
+ *     (2) 姓名列: UTF-8字节池及int偏移量, 只在输出结果时才解码为String。
+ * </pre>
+ * @author adolf felix
+ */
+public class BitmapFilterPattern {
+	/** 字典编码的属性列 **/
+	static class Column {
+		/** null的编号 **/
+		static final int NO_VALUE = 0xFF;
+
+		private final Map<String, Integer> ids = new HashMap<String, Integer>();
+		private final Map<String, List<Integer>> keys = new HashMap<String, List<Integer>>(); // 大写值 -> 编号
+		private final List<String> values = new ArrayList<String>();
+		private final List<long[]> bitmaps = new ArrayList<long[]>();
+		private byte[] codes;
+
+		Column(int capacity) {
+			codes = new byte[capacity];
+		}
+
+		void set(int row, String value) {
+			if (value == null) {
+				codes[row] = (byte) NO_VALUE;
+				return;
+			}
+			Integer id = ids.get(value);
+			if (id == null) {
+				if (values.size() == NO_VALUE) {
+					throw new IllegalStateException("Too many distinct values: " + value);
+				}
+				id = values.size();
+				ids.put(value, id);
+				keys.computeIfAbsent(value.toUpperCase(Locale.ROOT), k -> new ArrayList<Integer>(1)).add(id);
+				values.add(value);
+				bitmaps.add(new long[words(codes.length)]);
+			}
+			codes[row] = (byte) (int) id;
+			bitmaps.get(id)[row >>> 6] |= 1L << row;
+		}
+
+		void grow(int capacity) {
+			codes = Arrays.copyOf(codes, capacity);
+			for (int i = 0; i < bitmaps.size(); i++) {
+				bitmaps.set(i, Arrays.copyOf(bitmaps.get(i), words(capacity)));
+			}
+		}
+
+		/** 取值(忽略大小写)对应的位图, 不存在时返回null **/
+		long[] bitmap(String value) {
+			List<Integer> matches = value == null ? null : keys.get(value.toUpperCase(Locale.ROOT));
+			if (matches == null) {
+				return null;
+			}
+			if (matches.size() == 1) {
+				return bitmaps.get(matches.get(0));
+			}
+			long[] merged = new long[words(codes.length)];
+			for (int id : matches) {
+				long[] bitmap = bitmaps.get(id);
+				for (int i = 0; i < merged.length; i++) {
+					merged[i] |= bitmap[i];
+				}
+			}
+			return merged;
+		}
+
+		/** 写入时的原始值 **/
+		String value(int row) {
+			int id = codes[row] & 0xFF;
+			return id == NO_VALUE ? null : values.get(id);
+		}
+
+		long bytes() {
+			return codes.length + (long) bitmaps.size() * words(codes.length) * 8;
+		}
+	}
+
+	/** 列式人员存储 **/
+	static class PersonStore {
+		private int size;
+		private int[] nameOffset;
+		private byte[] names;
+		private final Map<Attribute, Column> columns = new EnumMap<Attribute, Column>(Attribute.class);
+
+		public PersonStore(int capacity) {
+			capacity = Math.max(capacity, 64);
+			nameOffset = new int[capacity + 1];
+			names = new byte[capacity * 4];
+			for (Attribute attribute : Attribute.values()) {
+				columns.put(attribute, new Column(capacity));
+			}
+		}
+
+		public void add(Person person) {
+			add(person.name, person.gender, person.marital);
+		}
+
+		public void add(String name, String gender, String marital) {
+			if (size == nameOffset.length - 1) {
+				int capacity = size * 2;
+				nameOffset = Arrays.copyOf(nameOffset, capacity + 1);
+				for (Column column : columns.values()) {
+					column.grow(capacity);
+				}
+			}
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			int offset = nameOffset[size];
+			if (offset + bytes.length > names.length) {
+				names = Arrays.copyOf(names, Math.max(names.length * 2, offset + bytes.length));
+			}
+			System.arraycopy(bytes, 0, names, offset, bytes.length);
+			nameOffset[size + 1] = offset + bytes.length;
+
+			columns.get(Attribute.GENDER).set(size, gender);
+			columns.get(Attribute.MARITAL).set(size, marital);
+			size++;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public Person get(int row) {
+			String name = new String(names, nameOffset[row], nameOffset[row + 1] - nameOffset[row], StandardCharsets.UTF_8);
+			return new Person(name, columns.get(Attribute.GENDER).value(row), columns.get(Attribute.MARITAL).value(row));
+		}
+
+		/** 按位图求值, 返回结果位图 **/
+		public long[] evaluate(Filter filter) {
+			long[] result = new long[words(size)];
+			evaluate(PredicateFilterPattern.compile(filter), result);
+			return result;
+		}
+
+		private void evaluate(Criteria criteria, long[] out) {
+			int words = out.length;
+			if (criteria instanceof AttributeCriteria) {
+				AttributeCriteria attribute = (AttributeCriteria) criteria;
+				long[] bitmap = columns.get(attribute.attribute).bitmap(attribute.value);
+				if (bitmap == null) {
+					Arrays.fill(out, 0L);
+				}
+				else {
+					System.arraycopy(bitmap, 0, out, 0, words);
+				}
+			}
+			else if (criteria instanceof AndCriteria) {
+				long[] other = new long[words];
+				evaluate(((AndCriteria) criteria).left, out);
+				evaluate(((AndCriteria) criteria).right, other);
+				for (int i = 0; i < words; i++) {
+					out[i] &= other[i];
+				}
+			}
+			else if (criteria instanceof OrCriteria) {
+				long[] other = new long[words];
+				evaluate(((OrCriteria) criteria).left, out);
+				evaluate(((OrCriteria) criteria).right, other);
+				for (int i = 0; i < words; i++) {
+					out[i] |= other[i];
+				}
+			}
+			else if (criteria instanceof NotCriteria) {
+				evaluate(((NotCriteria) criteria).criteria, out);
+				for (int i = 0; i < words; i++) {
+					out[i] = ~out[i];
+				}
+				if ((size & 63) != 0) {
+					out[words - 1] &= (1L << size) - 1;
+				}
+			}
+			else {
+				throw new IllegalArgumentException("Unsupported criteria: " + criteria);
+			}
+		}
+
+		/** 满足过滤条件的行数 **/
+		public int count(Filter filter) {
+			int count = 0;
+			for (long word : evaluate(filter)) {
+				count += Long.bitCount(word);
+			}
+			return count;
+		}
+
+		/** 满足过滤条件的人员, 顺序与写入顺序一致 **/
+		public List<Person> filter(Filter filter) {
+			List<Person> result = new ArrayList<Person>();
+			long[] bitmap = evaluate(filter);
+			for (int i = 0; i < bitmap.length; i++) {
+				long word = bitmap[i];
+				while (word != 0) {
+					result.add(get((i << 6) + Long.numberOfTrailingZeros(word)));
+					word &= word - 1;
+				}
+			}
+			return result;
+		}
+
+		/** 估算占用的字节数 **/
+		public long bytes() {
+			long bytes = nameOffset.length * 4L + names.length;
+			for (Column column : columns.values()) {
+				bytes += column.bytes();
+			}
+			return bytes;
+		}
+	}
+
+	static int words(int bits) {
+		return (bits + 63) >>> 6;
+	}
+
+	/**
+	 * 基准测试: 行数为args[0](默认一亿), 一亿行约需2GB堆内存, 如: java -Xmx4g BitmapFilterPattern 100000000
+	 */
+	public static void main(String[] args) {
+		PersonStore sample = new PersonStore(16);
+		for (Person person : PredicateFilterPattern.generate(10, 7)) {
+			sample.add(person);
+		}
+		System.out.println(sample.filter(new FilterAnd(new MarriedFilter(), new FemaleFilter())));
+		System.out.println(sample.filter(new FilterOr(new SingleFilter(), new FemaleFilter())));
+		sample.add("Nobody", null, "single");
+		sample.add("Shouty", "FEMALE", null);
+		System.out.println(sample.filter(new FilterOr(new SingleFilter(), new FemaleFilter())));
+		System.out.println(sample.filter(PredicateFilterPattern.male().negate()));
+
+		// 内存对比: 一百万行的对象列表与列式存储
+		int sampleRows = 1000000;
+		long before = MemoryUsage.usedMemory();
+		List<Person> objects = PredicateFilterPattern.generate(sampleRows, 7);
+		long objectBytes = MemoryUsage.usedMemory() - before;
+		PersonStore store = new PersonStore(sampleRows);
+		for (Person person : objects) {
+			store.add(person);
+		}
+		System.out.println("Bytes/Row: Objects = " + objectBytes / sampleRows + ", Columnar = " + store.bytes() / sampleRows);
+		objects = null;
+
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000000;
+		String[] genders = { "Male", "Female" };
+		String[] maritals = { "Single", "Married", "Divorced" };
+		Random random = new Random(7);
+		store = new PersonStore(rows);
+		for (int i = 0; i < rows; i++) {
+			store.add(Integer.toString(i, 36), genders[random.nextInt(genders.length)], maritals[random.nextInt(maritals.length)]);
+		}
+
+		Filter[] filters = {
+				new MaleFilter(),
+				new FilterAnd(new MarriedFilter(), new FemaleFilter()),
+				new FilterOr(new SingleFilter(), new FemaleFilter()),
+				PredicateFilterPattern.male().negate().and(PredicateFilterPattern.single().negate()),
+		};
+		for (Filter filter : filters) {
+			long best = Long.MAX_VALUE;
+			int count = 0;
+			for (int round = 0; round < 5; round++) {
+				long begin = System.nanoTime();
+				count = store.count(filter);
+				best = Math.min(best, System.nanoTime() - begin);
+			}
+			System.out.printf("Rows = %d, %s -> %d, %.2f ms%n", rows, PredicateFilterPattern.compile(filter), count, best / 1e6);
+		}
+	}
+}
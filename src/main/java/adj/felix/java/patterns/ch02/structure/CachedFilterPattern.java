@@ -0,0 +1,368 @@
+package adj.felix.java.patterns.ch02.structure;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.TreeMap;
+
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FemaleFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Filter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FilterAnd;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FilterOr;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.MaleFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.MarriedFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Person;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.SingleFilter;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.AndCriteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.AttributeCriteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.Criteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.NotCriteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.OrCriteria;
+
+/**
+ * <pre>
+ * ~~~~ <b>过滤器模式之结果缓存</b> ~~~~
+ * 同样的FilterAnd/FilterOr组合被反复执行, 而人员列表很少变化。结果缓存以"规范化的过滤表达式 + 数据集版本"为键缓存过滤结果:
+ * 01. 规范化
+ *     过滤器编译为谓词树后, 展开嵌套的AND/OR, 消去双重否定, 操作数去重并按字典序排列, 取值转为大写。
+ *     因此FilterAnd(Married, Female)与FilterAnd(Female, Married)共用同一个缓存项。
+ *     其他Criteria子类无法分析: toString()可能基于对象标识(会重复), 也可能不含参数(不同谓词相同), 不能作为键。
+ *     谓词树中含有这类谓词时不使用缓存, 直接过滤并计入Bypasses。
+ * 02. 版本
+ *     数据集的版本由纪元(epoch)及行数组成。追加记录只增加行数, 缓存项只需过滤新增的记录并追加到结果末尾;
+ *     结果保存在只追加的数组中, 容量不足时按倍数扩容, 返回的列表是数组前若干项的视图, 追加不影响已返回的列表, 每次追加均摊只复制新增的结果;
+ *     修改或删除记录则纪元加一, 旧纪元的缓存项全部失效。直接修改Person对象的字段不会被感知。
+ * 03. 淘汰
+ *     缓存项按最近访问顺序排列, 估算的总字节数超过预算时淘汰最久未访问的项。结果列表中的Person与数据集共享, 不计入字节数。
+ * 04. 统计
+ *     命中、增量命中、未命中、未使用缓存、淘汰次数及当前字节数。
+ * </pre>
+ * @author adolf felix
+ */
+public class CachedFilterPattern {
+	/** 带版本的人员数据集 **/
+	static class PersonDataset {
+		private final List<Person> persons = new ArrayList<Person>();
+		private final List<Person> view = Collections.unmodifiableList(persons);
+		private long epoch;
+
+		public synchronized void append(List<Person> added) {
+			persons.addAll(added);
+		}
+
+		public synchronized void set(int index, Person person) {
+			persons.set(index, person);
+			epoch++;
+		}
+
+		public synchronized Person remove(int index) {
+			epoch++;
+			return persons.remove(index);
+		}
+
+		public synchronized long epoch() {
+			return epoch;
+		}
+
+		public synchronized int size() {
+			return persons.size();
+		}
+
+		/** 只读视图 **/
+		public List<Person> persons() {
+			return view;
+		}
+	}
+
+	/** 缓存项, 结果只追加 **/
+	static final class Entry {
+		final long epoch;
+		int rows; // 已过滤的行数
+		private Person[] elements;
+		private int size;
+		private List<Person> result; // 当前结果的视图, 追加后重新创建
+		long bytes;
+
+		Entry(long epoch, int rows, List<Person> result, String key) {
+			this.epoch = epoch;
+			this.rows = rows;
+			this.elements = result.toArray(new Person[0]);
+			this.size = elements.length;
+			this.result = new ResultView(elements, size);
+			this.bytes = bytes(key, elements.length);
+		}
+
+		/** 追加结果, 容量不足时按倍数扩容; 已返回的视图只覆盖其创建时的前size项, 不受影响 **/
+		void append(List<Person> delta, String key) {
+			if (delta.isEmpty()) {
+				return;
+			}
+			if (size + delta.size() > elements.length) {
+				elements = Arrays.copyOf(elements, Math.max(elements.length * 2, size + delta.size()));
+			}
+			for (Person person : delta) {
+				elements[size++] = person;
+			}
+			result = new ResultView(elements, size);
+			bytes = bytes(key, elements.length);
+		}
+
+		List<Person> result() {
+			return result;
+		}
+
+		/** 估算: 缓存项及映射节点约96字节, 键按每字符2字节, 结果数组按每项4字节(压缩指针) **/
+		static long bytes(String key, int capacity) {
+			return 96 + 40 + 2L * key.length() + 16 + 4L * capacity;
+		}
+	}
+
+	/** 结果数组前size项的只读视图 **/
+	static final class ResultView extends AbstractList<Person> implements RandomAccess {
+		private final Person[] elements;
+		private final int size;
+
+		ResultView(Person[] elements, int size) {
+			this.elements = elements;
+			this.size = size;
+		}
+
+		@Override
+		public Person get(int index) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+			return elements[index];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	/** 过滤结果缓存 **/
+	static class FilterResultCache {
+		private final PersonDataset dataset;
+		private final long budgetBytes;
+		private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		private long bytes;
+		private long hits;
+		private long incrementalHits;
+		private long misses;
+		private long bypasses;
+		private long evictions;
+
+		public FilterResultCache(PersonDataset dataset, long budgetBytes) {
+			this.dataset = dataset;
+			this.budgetBytes = budgetBytes;
+		}
+
+		/** 以缓存过滤数据集, 返回的列表不可修改 **/
+		public List<Person> filter(Filter filter) {
+			Criteria compiled = PredicateFilterPattern.compile(filter);
+			if (!analyzable(compiled)) {
+				synchronized (dataset) {
+					synchronized (this) {
+						bypasses++;
+					}
+					return Collections.unmodifiableList(compiled.filter(dataset.persons()));
+				}
+			}
+			Criteria criteria = canonicalize(compiled);
+			String key = criteria.toString();
+			// 持有数据集的锁, 过滤期间数据集不变
+			synchronized (dataset) {
+				long epoch = dataset.epoch();
+				List<Person> persons = dataset.persons();
+				synchronized (this) {
+					Entry entry = entries.get(key);
+					if (entry != null && entry.epoch == epoch) {
+						if (entry.rows == persons.size()) {
+							hits++;
+							return entry.result();
+						}
+						List<Person> delta = criteria.filter(persons.subList(entry.rows, persons.size()));
+						bytes -= entry.bytes;
+						entry.append(delta, key);
+						entry.rows = persons.size();
+						bytes += entry.bytes;
+						incrementalHits++;
+						evict();
+						return entry.result();
+					}
+
+					misses++;
+					if (entry != null) {
+						remove(key);
+					}
+					entry = new Entry(epoch, persons.size(), criteria.filter(persons), key);
+					if (entry.bytes <= budgetBytes) {
+						entries.put(key, entry);
+						bytes += entry.bytes;
+						evict();
+					}
+					return entry.result();
+				}
+			}
+		}
+
+		/** 包装为Filter: 过滤对象为数据集时使用缓存, 否则直接过滤 **/
+		public Filter cached(Filter filter) {
+			return persons -> persons == dataset.persons() ? filter(filter) : filter.filter(persons);
+		}
+
+		private void evict() {
+			Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+			while (bytes > budgetBytes && iterator.hasNext()) {
+				bytes -= iterator.next().getValue().bytes;
+				iterator.remove();
+				evictions++;
+			}
+		}
+
+		private void remove(String key) {
+			Entry entry = entries.remove(key);
+			if (entry != null) {
+				bytes -= entry.bytes;
+			}
+		}
+
+		/** 命中率, 不含未使用缓存的过滤 **/
+		public synchronized double hitRatio() {
+			long total = hits + incrementalHits + misses;
+			return total == 0 ? 0 : (double) (hits + incrementalHits) / total;
+		}
+
+		@Override
+		public synchronized String toString() {
+			return String.format("Entries = %d, Bytes = %d/%d, Hits = %d, Incremental = %d, Misses = %d, Bypasses = %d, Evictions = %d, Hit Ratio = %.1f%%",
+					entries.size(), bytes, budgetBytes, hits, incrementalHits, misses, bypasses, evictions, hitRatio() * 100);
+		}
+	}
+
+	/** 谓词树是否只由属性比较及AND/OR/NOT组成, 只有这样的谓词树才能以规范化的字符串为键 **/
+	static boolean analyzable(Criteria criteria) {
+		if (criteria instanceof AttributeCriteria) {
+			return true;
+		}
+		if (criteria instanceof NotCriteria) {
+			return analyzable(((NotCriteria) criteria).criteria);
+		}
+		if (criteria instanceof AndCriteria) {
+			return analyzable(((AndCriteria) criteria).left) && analyzable(((AndCriteria) criteria).right);
+		}
+		if (criteria instanceof OrCriteria) {
+			return analyzable(((OrCriteria) criteria).left) && analyzable(((OrCriteria) criteria).right);
+		}
+		return false;
+	}
+
+	/** 规范化谓词树, 语义不变; 无法分析的谓词原样保留, 不参与去重, 按原顺序排在可分析的操作数之后 **/
+	static Criteria canonicalize(Criteria criteria) {
+		if (criteria instanceof AttributeCriteria) {
+			AttributeCriteria attribute = (AttributeCriteria) criteria;
+			return new AttributeCriteria(attribute.attribute, attribute.value.toUpperCase(Locale.ROOT));
+		}
+		if (criteria instanceof NotCriteria) {
+			Criteria inner = ((NotCriteria) criteria).criteria;
+			if (inner instanceof NotCriteria) {
+				return canonicalize(((NotCriteria) inner).criteria);
+			}
+			return new NotCriteria(canonicalize(inner));
+		}
+		if (!(criteria instanceof AndCriteria || criteria instanceof OrCriteria)) {
+			return criteria;
+		}
+		boolean and = criteria instanceof AndCriteria;
+		List<Criteria> operands = new ArrayList<Criteria>();
+		flatten(criteria, and, operands);
+		// 按字符串形式去重并排序
+		TreeMap<String, Criteria> sorted = new TreeMap<String, Criteria>();
+		List<Criteria> opaque = new ArrayList<Criteria>();
+		for (Criteria operand : operands) {
+			Criteria canonical = canonicalize(operand);
+			if (analyzable(canonical)) {
+				sorted.putIfAbsent(canonical.toString(), canonical);
+			}
+			else {
+				opaque.add(canonical);
+			}
+		}
+		List<Criteria> ordered = new ArrayList<Criteria>(sorted.values());
+		ordered.addAll(opaque);
+		Criteria result = null;
+		for (Criteria operand : ordered) {
+			result = result == null ? operand : and ? new AndCriteria(result, operand) : new OrCriteria(result, operand);
+		}
+		return result;
+	}
+
+	private static void flatten(Criteria criteria, boolean and, List<Criteria> operands) {
+		if (and && criteria instanceof AndCriteria) {
+			flatten(((AndCriteria) criteria).left, and, operands);
+			flatten(((AndCriteria) criteria).right, and, operands);
+		}
+		else if (!and && criteria instanceof OrCriteria) {
+			flatten(((OrCriteria) criteria).left, and, operands);
+			flatten(((OrCriteria) criteria).right, and, operands);
+		}
+		else {
+			operands.add(criteria);
+		}
+	}
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		PersonDataset dataset = new PersonDataset();
+		dataset.append(PredicateFilterPattern.generate(count, 7));
+		FilterResultCache cache = new FilterResultCache(dataset, 8 << 20);
+
+		System.out.println(canonicalize(PredicateFilterPattern.compile(new FilterAnd(new MarriedFilter(), new FemaleFilter()))));
+		System.out.println(canonicalize(PredicateFilterPattern.compile(new FilterAnd(new FemaleFilter(), new FilterAnd(new MarriedFilter(), new FemaleFilter())))));
+
+		// 仪表盘: 反复执行的过滤组合, 期间不断追加记录, 偶尔修改记录
+		Filter[] dashboard = {
+				new FilterAnd(new MarriedFilter(), new FemaleFilter()),
+				new FilterAnd(new FemaleFilter(), new MarriedFilter()),
+				new FilterOr(new SingleFilter(), new FemaleFilter()),
+				new FilterAnd(new MaleFilter(), PredicateFilterPattern.married().negate()),
+				new FilterOr(new FilterAnd(new MaleFilter(), new SingleFilter()), new FilterAnd(new FemaleFilter(), new MarriedFilter())),
+		};
+		long uncached = 0;
+		long cached = 0;
+		int appended = 0;
+		for (int round = 0; round < 50; round++) {
+			for (Filter filter : dashboard) {
+				Filter criteria = PredicateFilterPattern.compile(filter);
+				long begin = System.nanoTime();
+				List<Person> expected = criteria.filter(dataset.persons());
+				uncached += System.nanoTime() - begin;
+
+				begin = System.nanoTime();
+				List<Person> actual = cache.cached(filter).filter(dataset.persons());
+				cached += System.nanoTime() - begin;
+				if (!actual.equals(expected)) {
+					throw new IllegalStateException("Cached result differs: " + criteria);
+				}
+			}
+			if (round % 5 == 4) {
+				List<Person> added = PredicateFilterPattern.generate(1000, round);
+				dataset.append(added);
+				appended += added.size();
+			}
+			if (round == 30) {
+				dataset.set(0, new Person("P0", "Male", "Single"));
+			}
+		}
+		System.out.printf("Rows = %d (+%d appended), Uncached = %.1f ms, Cached = %.1f ms%n", count, appended, uncached / 1e6, cached / 1e6);
+		System.out.println(cache);
+	}
+}
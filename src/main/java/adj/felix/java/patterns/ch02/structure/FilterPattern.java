@@ -58,7 +58,7 @@ public class FilterPattern {
 			List<Person> result = new ArrayList<>();
 
 			for (Person person : persons) {
-				if ("MALE".equalsIgnoreCase(person.gender)) {
+				if ("FEMALE".equalsIgnoreCase(person.gender)) {
 					result.add(person);
 				}
 			}
@@ -101,8 +101,8 @@ public class FilterPattern {
 
 	/** And Filter **/
 	static class FilterAnd implements Filter {
-		private Filter filter;
-		private Filter otherFilter;
+		final Filter filter;
+		final Filter otherFilter;
 
 		public FilterAnd(Filter filter, Filter otherFilter) {
 			this.filter = filter;
@@ -118,8 +118,8 @@ public class FilterPattern {
 
 	/** Or Filter **/
 	static class FilterOr implements Filter {
-		private Filter filter;
-		private Filter otherFilter;
+		final Filter filter;
+		final Filter otherFilter;
 
 		public FilterOr(Filter filter, Filter otherFilter) {
 			this.filter = filter;
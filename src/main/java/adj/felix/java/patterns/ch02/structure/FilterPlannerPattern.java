@@ -0,0 +1,375 @@
+package adj.felix.java.patterns.ch02.structure;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FemaleFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Filter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FilterAnd;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FilterOr;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.MaleFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.MarriedFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Person;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.SingleFilter;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.AndCriteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.Attribute;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.AttributeCriteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.Criteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.NotCriteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.OrCriteria;
+
+/**
+ * <pre>
+ * ~~~~ <b>过滤器模式之查询计划</b> ~~~~
+ * FilterAnd/FilterOr总是按书写顺序执行, 若先执行的过滤器选择性最差, 大部分工作都是浪费。
+ * 查询计划器根据数据集的取值频率统计, 重排AND/OR的操作数:
+ * 01. 估算
+ *     (1) 选择性: 只涉及一个属性的子树按各取值的频率精确计算; 涉及多个属性时NOT为1 - s, AND为各操作数之积, OR为1 - ∏(1 - s)(假定各属性相互独立)。
+ *     (2) 代价: 每条记录的平均比较次数。属性条件为1; AND短路求值, 后一个操作数只对前面全部满足的记录求值; OR反之。
+ *     (3) 计划器不认识的Criteria子类视为不透明的谓词, 选择性按0.5、代价按1估算。
+ * 02. 重排
+ *     嵌套的AND(OR)先展开为多个操作数, 再按"代价 / 被短路的概率"升序排列, 即AND按cost / (1 - s), OR按cost / s,
+ *     这一顺序使短路求值的期望代价最小。排序后重建为左深树, 子树递归优化。
+ *     不透明的操作数不参与排序, 按书写顺序排在可估算的操作数之后, 只对通过前面各条件筛选(AND)或未被命中(OR)的记录求值。
+ * 03. 执行计划
+ *     explain()在数据集上执行计划并统计每个节点实际的输入及输出行数, 与估算值一同输出。
+ * </pre>
+ * @author adolf felix
+ */
+public class FilterPlannerPattern {
+	/** 取值频率统计 **/
+	static class Statistics {
+		/** 不透明谓词的估算值 **/
+		static final double OPAQUE_SELECTIVITY = 0.5;
+		static final double OPAQUE_COST = 1;
+
+		private final long rows;
+		private final Map<Attribute, Map<String, Long>> frequencies = new EnumMap<Attribute, Map<String, Long>>(Attribute.class);
+
+		public Statistics(List<Person> persons) {
+			for (Attribute attribute : Attribute.values()) {
+				frequencies.put(attribute, new HashMap<String, Long>());
+			}
+			for (Person person : persons) {
+				for (Attribute attribute : Attribute.values()) {
+					String value = attribute.valueOf(person);
+					if (value != null) {
+						frequencies.get(attribute).merge(value.toUpperCase(Locale.ROOT), 1L, Long::sum);
+					}
+				}
+			}
+			this.rows = persons.size();
+		}
+
+		public long rows() {
+			return rows;
+		}
+
+		/** 满足条件的记录所占比例 **/
+		public double selectivity(Criteria criteria) {
+			if (rows == 0) {
+				return 0;
+			}
+			Attribute attribute = attributeOf(criteria);
+			if (attribute != null) {
+				// 只涉及一个属性时按取值逐个求值, 结果是精确的
+				long count = 0;
+				for (Map.Entry<String, Long> entry : frequencies.get(attribute).entrySet()) {
+					if (matches(criteria, entry.getKey())) {
+						count += entry.getValue();
+					}
+				}
+				return (double) count / rows;
+			}
+			if (criteria instanceof AndCriteria) {
+				AndCriteria and = (AndCriteria) criteria;
+				return selectivity(and.left) * selectivity(and.right);
+			}
+			if (criteria instanceof OrCriteria) {
+				OrCriteria or = (OrCriteria) criteria;
+				return 1 - (1 - selectivity(or.left)) * (1 - selectivity(or.right));
+			}
+			if (criteria instanceof NotCriteria) {
+				return 1 - selectivity(((NotCriteria) criteria).criteria);
+			}
+			return OPAQUE_SELECTIVITY;
+		}
+
+		/** 谓词树只涉及一个属性时返回该属性, 否则返回null **/
+		private Attribute attributeOf(Criteria criteria) {
+			if (criteria instanceof AttributeCriteria) {
+				return ((AttributeCriteria) criteria).attribute;
+			}
+			if (criteria instanceof NotCriteria) {
+				return attributeOf(((NotCriteria) criteria).criteria);
+			}
+			if (isOpaque(criteria)) {
+				return null;
+			}
+			Criteria left = criteria instanceof AndCriteria ? ((AndCriteria) criteria).left : ((OrCriteria) criteria).left;
+			Criteria right = criteria instanceof AndCriteria ? ((AndCriteria) criteria).right : ((OrCriteria) criteria).right;
+			Attribute attribute = attributeOf(left);
+			return attribute != null && attribute == attributeOf(right) ? attribute : null;
+		}
+
+		/** 属性取值为value的记录是否满足只涉及一个属性的谓词树 **/
+		private boolean matches(Criteria criteria, String value) {
+			if (criteria instanceof AttributeCriteria) {
+				return ((AttributeCriteria) criteria).value.equalsIgnoreCase(value);
+			}
+			if (criteria instanceof AndCriteria) {
+				return matches(((AndCriteria) criteria).left, value) && matches(((AndCriteria) criteria).right, value);
+			}
+			if (criteria instanceof OrCriteria) {
+				return matches(((OrCriteria) criteria).left, value) || matches(((OrCriteria) criteria).right, value);
+			}
+			return !matches(((NotCriteria) criteria).criteria, value);
+		}
+
+		/** 每条记录的平均比较次数 **/
+		public double cost(Criteria criteria) {
+			if (criteria instanceof AttributeCriteria) {
+				return 1;
+			}
+			if (criteria instanceof AndCriteria) {
+				AndCriteria and = (AndCriteria) criteria;
+				return cost(and.left) + selectivity(and.left) * cost(and.right);
+			}
+			if (criteria instanceof OrCriteria) {
+				OrCriteria or = (OrCriteria) criteria;
+				return cost(or.left) + (1 - selectivity(or.left)) * cost(or.right);
+			}
+			if (criteria instanceof NotCriteria) {
+				return cost(((NotCriteria) criteria).criteria);
+			}
+			return OPAQUE_COST;
+		}
+	}
+
+	/** 计划器无法分析的谓词 **/
+	static boolean isOpaque(Criteria criteria) {
+		return !(criteria instanceof AttributeCriteria || criteria instanceof AndCriteria || criteria instanceof OrCriteria || criteria instanceof NotCriteria);
+	}
+
+	/** 查询计划器 **/
+	static class Planner {
+		private final Statistics statistics;
+
+		public Planner(Statistics statistics) {
+			this.statistics = statistics;
+		}
+
+		/** 将过滤器编译为谓词树并重排操作数 **/
+		public Criteria plan(Filter filter) {
+			return optimize(PredicateFilterPattern.compile(filter));
+		}
+
+		private Criteria optimize(Criteria criteria) {
+			if (criteria instanceof AndCriteria || criteria instanceof OrCriteria) {
+				boolean and = criteria instanceof AndCriteria;
+				List<Criteria> operands = new ArrayList<Criteria>();
+				flatten(criteria, and, operands);
+				List<Criteria> ordered = new ArrayList<Criteria>(operands.size());
+				List<Criteria> opaques = new ArrayList<Criteria>();
+				for (Criteria operand : operands) {
+					operand = optimize(operand);
+					if (isOpaque(operand)) {
+						opaques.add(operand);
+					}
+					else {
+						ordered.add(operand);
+					}
+				}
+				ordered.sort(Comparator.comparingDouble(operand -> rank(operand, and)));
+				ordered.addAll(opaques);
+				operands = ordered;
+
+				Criteria result = operands.get(0);
+				for (int i = 1; i < operands.size(); i++) {
+					result = and ? new AndCriteria(result, operands.get(i)) : new OrCriteria(result, operands.get(i));
+				}
+				return result;
+			}
+			if (criteria instanceof NotCriteria) {
+				return new NotCriteria(optimize(((NotCriteria) criteria).criteria));
+			}
+			return criteria;
+		}
+
+		private void flatten(Criteria criteria, boolean and, List<Criteria> operands) {
+			if (and && criteria instanceof AndCriteria) {
+				flatten(((AndCriteria) criteria).left, and, operands);
+				flatten(((AndCriteria) criteria).right, and, operands);
+			}
+			else if (!and && criteria instanceof OrCriteria) {
+				flatten(((OrCriteria) criteria).left, and, operands);
+				flatten(((OrCriteria) criteria).right, and, operands);
+			}
+			else {
+				operands.add(criteria);
+			}
+		}
+
+		/** 代价 / 短路概率, 越小越应先执行 **/
+		private double rank(Criteria operand, boolean and) {
+			double selectivity = statistics.selectivity(operand);
+			double shortCircuit = and ? 1 - selectivity : selectivity;
+			return shortCircuit == 0 ? Double.MAX_VALUE : statistics.cost(operand) / shortCircuit;
+		}
+
+		/** 在数据集上执行计划, 输出每个节点估算及实际的输入/输出行数 **/
+		public String explain(Criteria plan, List<Person> persons) {
+			Counter root = instrument(plan);
+			for (Person person : persons) {
+				root.test(person);
+			}
+			StringBuilder builder = new StringBuilder();
+			builder.append(String.format("%-32s %12s %12s   %12s %12s%n", "Plan", "Est. In", "Est. Out", "Actual In", "Actual Out"));
+			explain(root, statistics.rows(), statistics.rows() * statistics.selectivity(plan), 0, builder);
+			builder.append(String.format("Estimated cost = %.3f comparisons/row%n", statistics.cost(plan)));
+			return builder.toString();
+		}
+
+		/** 右操作数的估算输出由父节点的估算输出推出, 与左操作数之间的相关性不会被重复计算 **/
+		private void explain(Counter node, double in, double out, int depth, StringBuilder builder) {
+			Criteria criteria = node.criteria;
+			String label = criteria instanceof AndCriteria ? "AND" : criteria instanceof OrCriteria ? "OR" : criteria instanceof NotCriteria ? "NOT" : criteria.toString();
+			StringBuilder indent = new StringBuilder();
+			for (int i = 0; i < depth; i++) {
+				indent.append("  ");
+			}
+			builder.append(String.format("%-32s %12.0f %12.0f   %12d %12d%n", indent + label, in, out, node.in, node.out));
+
+			if (criteria instanceof AndCriteria) {
+				Counter left = node.children[0];
+				double leftOut = in * statistics.selectivity(left.criteria);
+				explain(left, in, leftOut, depth + 1, builder);
+				explain(node.children[1], leftOut, out, depth + 1, builder);
+			}
+			else if (criteria instanceof OrCriteria) {
+				Counter left = node.children[0];
+				double leftOut = in * statistics.selectivity(left.criteria);
+				explain(left, in, leftOut, depth + 1, builder);
+				explain(node.children[1], in - leftOut, out - leftOut, depth + 1, builder);
+			}
+			else if (criteria instanceof NotCriteria) {
+				explain(node.children[0], in, in - out, depth + 1, builder);
+			}
+		}
+
+		/** 为每个节点加上计数器, 求值语义与原节点相同 **/
+		private Counter instrument(Criteria criteria) {
+			if (criteria instanceof AndCriteria) {
+				Counter left = instrument(((AndCriteria) criteria).left);
+				Counter right = instrument(((AndCriteria) criteria).right);
+				return new Counter(criteria, new AndCriteria(left, right), left, right);
+			}
+			if (criteria instanceof OrCriteria) {
+				Counter left = instrument(((OrCriteria) criteria).left);
+				Counter right = instrument(((OrCriteria) criteria).right);
+				return new Counter(criteria, new OrCriteria(left, right), left, right);
+			}
+			if (criteria instanceof NotCriteria) {
+				Counter child = instrument(((NotCriteria) criteria).criteria);
+				return new Counter(criteria, new NotCriteria(child), child);
+			}
+			return new Counter(criteria, criteria);
+		}
+	}
+
+	/** 统计节点的输入及输出行数 **/
+	static final class Counter extends Criteria {
+		final Criteria criteria;
+		final Criteria evaluated;
+		final Counter[] children;
+		long in;
+		long out;
+
+		Counter(Criteria criteria, Criteria evaluated, Counter... children) {
+			this.criteria = criteria;
+			this.evaluated = evaluated;
+			this.children = children;
+		}
+
+		@Override
+		boolean test(Person person) {
+			in++;
+			boolean result = evaluated.test(person);
+			if (result) {
+				out++;
+			}
+			return result;
+		}
+	}
+
+	/** 计划器无法分析的谓词: 姓名长度不小于minLength **/
+	static final class NameLengthCriteria extends Criteria {
+		final int minLength;
+
+		NameLengthCriteria(int minLength) {
+			this.minLength = minLength;
+		}
+
+		@Override
+		boolean test(Person person) {
+			return person.name.length() >= minLength;
+		}
+
+		@Override
+		public String toString() {
+			return "LENGTH(NAME) >= " + minLength;
+		}
+	}
+
+	/** 生成取值分布不均匀的人员: 男女各半, 已婚70%, 单身25%, 离异5% **/
+	static List<Person> generateSkewed(int count, long seed) {
+		Random random = new Random(seed);
+		List<Person> persons = new ArrayList<Person>(count);
+		for (int i = 0; i < count; i++) {
+			int marital = random.nextInt(100);
+			persons.add(new Person("P" + i, random.nextBoolean() ? "Male" : "Female", marital < 70 ? "Married" : marital < 95 ? "Single" : "Divorced"));
+		}
+		return persons;
+	}
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		List<Person> persons = generateSkewed(count, 7);
+		Planner planner = new Planner(new Statistics(persons));
+
+		Filter[] filters = {
+				new FilterAnd(new MarriedFilter(), new FemaleFilter()),
+				new FilterOr(new SingleFilter(), new MarriedFilter()),
+				new FilterAnd(new FilterAnd(new MaleFilter(), PredicateFilterPattern.single().negate()), new AttributeCriteria(Attribute.MARITAL, "Divorced")),
+				new FilterAnd(new FilterOr(new SingleFilter(), new MarriedFilter()), new FilterOr(new FemaleFilter(), new AttributeCriteria(Attribute.MARITAL, "Divorced"))),
+				new FilterAnd(new NameLengthCriteria(6), new FilterAnd(new MarriedFilter(), new FemaleFilter())),
+		};
+		for (Filter filter : filters) {
+			Criteria written = PredicateFilterPattern.compile(filter);
+			Criteria plan = planner.plan(filter);
+			System.out.println("Written: " + written);
+			System.out.println("Planned: " + plan);
+			System.out.print(planner.explain(plan, persons));
+
+			long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+			for (int round = 0; round < 5; round++) {
+				long begin = System.nanoTime();
+				int writtenSize = written.filter(persons).size();
+				best[0] = Math.min(best[0], System.nanoTime() - begin);
+				begin = System.nanoTime();
+				int planSize = plan.filter(persons).size();
+				best[1] = Math.min(best[1], System.nanoTime() - begin);
+				if (writtenSize != planSize) {
+					throw new IllegalStateException(writtenSize + " != " + planSize);
+				}
+			}
+			System.out.printf("Written = %.2f ms, Planned = %.2f ms%n%n", best[0] / 1e6, best[1] / 1e6);
+		}
+	}
+}
@@ -0,0 +1,330 @@
+package adj.felix.java.patterns.ch02.structure;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FemaleFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Filter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FilterAnd;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FilterOr;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.MarriedFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Person;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.SingleFilter;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.AndCriteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.Attribute;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.AttributeCriteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.Criteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.NotCriteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.OrCriteria;
+
+/**
+ * <pre>
+ * ~~~~ <b>过滤器模式之内存映射数据源</b> ~~~~
+ * Filter要求整个List&lt;Person&gt;都在堆中。内存映射数据源直接在映射的文件上逐条扫描CSV记录(姓名,性别,婚姻状况):
+ * 01. 映射
+ *     文件按窗口(默认256MB)分段映射, 每个窗口在最后一个换行符处截断, 下一个窗口从该处开始, 记录不会跨窗口。
+ *     单条记录超过窗口大小时抛出IllegalStateException。
+ * 02. 匹配
+ *     过滤器先编译为谓词树, 再编译为字节匹配器: 属性条件预先计算取值的大写及小写UTF-8字节, 直接与字段的字节逐个比较,
+ *     不为字段创建String。只有满足条件的记录才解码为Person。
+ * 03. 格式
+ *     首行为"name,gender,marital"时视为表头并跳过; 行尾可为\n或\r\n; 不支持带引号及转义的字段。
+ * </pre>
+ * @author adolf felix
+ */
+public class MappedFilterPattern {
+	static final int NAME = 0;
+	static final int GENDER = 1;
+	static final int MARITAL = 2;
+	static final String HEADER = "name,gender,marital";
+
+	/** 在映射窗口中的一条记录, 字段以[start, end)表示 **/
+	static final class Record {
+		ByteBuffer buffer;
+		final int[] start = new int[3];
+		final int[] end = new int[3];
+
+		String field(int index) {
+			byte[] bytes = new byte[end[index] - start[index]];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = buffer.get(start[index] + i);
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		Person toPerson() {
+			return new Person(field(NAME), field(GENDER), field(MARITAL));
+		}
+	}
+
+	/** 在字节上求值的谓词 **/
+	interface RecordMatcher {
+		public boolean matches(Record record);
+	}
+
+	/** 将谓词树编译为字节匹配器 **/
+	static RecordMatcher compile(Criteria criteria) {
+		if (criteria instanceof AttributeCriteria) {
+			AttributeCriteria attribute = (AttributeCriteria) criteria;
+			return fieldEquals(attribute.attribute == Attribute.GENDER ? GENDER : MARITAL, attribute.value);
+		}
+		if (criteria instanceof AndCriteria) {
+			RecordMatcher left = compile(((AndCriteria) criteria).left);
+			RecordMatcher right = compile(((AndCriteria) criteria).right);
+			return record -> left.matches(record) && right.matches(record);
+		}
+		if (criteria instanceof OrCriteria) {
+			RecordMatcher left = compile(((OrCriteria) criteria).left);
+			RecordMatcher right = compile(((OrCriteria) criteria).right);
+			return record -> left.matches(record) || right.matches(record);
+		}
+		if (criteria instanceof NotCriteria) {
+			RecordMatcher matcher = compile(((NotCriteria) criteria).criteria);
+			return record -> !matcher.matches(record);
+		}
+		throw new IllegalArgumentException("Unsupported criteria: " + criteria);
+	}
+
+	/** 字段忽略大小写等于value **/
+	static RecordMatcher fieldEquals(int field, String value) {
+		byte[] upper = value.toUpperCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+		byte[] lower = value.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+		if (!isAscii(upper) || !isAscii(lower)) {
+			// 非ASCII取值的大小写形式可能长度不同, 解码后比较
+			return record -> value.equalsIgnoreCase(record.field(field));
+		}
+		return record -> {
+			int start = record.start[field];
+			if (record.end[field] - start != upper.length) {
+				return false;
+			}
+			ByteBuffer buffer = record.buffer;
+			for (int i = 0; i < upper.length; i++) {
+				byte b = buffer.get(start + i);
+				if (b != upper[i] && b != lower[i]) {
+					return false;
+				}
+			}
+			return true;
+		};
+	}
+
+	private static boolean isAscii(byte[] bytes) {
+		for (byte b : bytes) {
+			if (b < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** 内存映射的人员数据源 **/
+	static class MappedPersonSource {
+		private final Path path;
+		private final int windowBytes;
+
+		public MappedPersonSource(Path path) {
+			this(path, 256 << 20);
+		}
+
+		public MappedPersonSource(Path path, int windowBytes) {
+			this.path = path;
+			this.windowBytes = windowBytes;
+		}
+
+		/**
+		 * 扫描整个文件, 满足过滤条件的记录解码为Person后交给action
+		 * @return 扫描的记录数
+		 */
+		public long forEach(Filter filter, Consumer<Person> action) throws IOException {
+			return scan(filter, record -> action.accept(record.toPerson()));
+		}
+
+		/** 过滤整个文件, 只返回满足条件的记录 **/
+		public List<Person> filter(Filter filter) throws IOException {
+			List<Person> result = new ArrayList<Person>();
+			forEach(filter, result::add);
+			return result;
+		}
+
+		/** 满足过滤条件的记录数, 不创建任何Person **/
+		public long count(Filter filter) throws IOException {
+			long[] count = new long[1];
+			scan(filter, record -> count[0]++);
+			return count[0];
+		}
+
+		/** 扫描整个文件, 满足过滤条件的记录交给action, 记录对象被复用 **/
+		private long scan(Filter filter, Consumer<Record> action) throws IOException {
+			RecordMatcher matcher = compile(PredicateFilterPattern.compile(filter));
+			Record record = new Record();
+			long records = 0;
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				long size = channel.size();
+				long position = 0;
+				boolean first = true;
+				while (position < size) {
+					int length = (int) Math.min(windowBytes, size - position);
+					ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+					int limit = length;
+					if (position + length < size) {
+						while (limit > 0 && window.get(limit - 1) != '\n') {
+							limit--;
+						}
+						if (limit == 0) {
+							throw new IllegalStateException("Record at offset " + position + " exceeds window of " + windowBytes + " bytes");
+						}
+					}
+
+					record.buffer = window;
+					int offset = 0;
+					while (offset < limit) {
+						int next = parse(window, offset, limit, record);
+						if (first) {
+							first = false;
+							if (isHeader(record)) {
+								offset = next;
+								continue;
+							}
+						}
+						if (record.end[MARITAL] >= 0) {
+							records++;
+							if (matcher.matches(record)) {
+								action.accept(record);
+							}
+						}
+						offset = next;
+					}
+					position += limit;
+				}
+			}
+			return records;
+		}
+
+		/**
+		 * 解析从offset开始的一行, 字段位置写入record; 空行的MARITAL结束位置为-1
+		 * @return 下一行的起始位置
+		 */
+		private static int parse(ByteBuffer window, int offset, int limit, Record record) {
+			int field = 0;
+			record.start[0] = offset;
+			int i = offset;
+			for (; i < limit; i++) {
+				byte b = window.get(i);
+				if (b == '\n') {
+					break;
+				}
+				if (b == ',' && field < MARITAL) {
+					record.end[field++] = i;
+					record.start[field] = i + 1;
+				}
+			}
+			int end = i > offset && window.get(i - 1) == '\r' ? i - 1 : i;
+			if (field == MARITAL) {
+				record.end[MARITAL] = end;
+			}
+			else if (end == offset) {
+				record.end[MARITAL] = -1;
+			}
+			else {
+				throw new IllegalStateException("Malformed record at window offset " + offset);
+			}
+			return i + 1;
+		}
+
+		private static boolean isHeader(Record record) {
+			int length = record.end[MARITAL] - record.start[NAME];
+			if (length != HEADER.length()) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (Character.toLowerCase((char) record.buffer.get(record.start[NAME] + i)) != HEADER.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/** 生成CSV文件 **/
+	static void write(Path path, long rows, long seed) throws IOException {
+		String[] genders = { "Male", "Female" };
+		String[] maritals = { "Single", "Married", "Divorced" };
+		Random random = new Random(seed);
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writer.write(HEADER);
+			writer.write('\n');
+			for (long i = 0; i < rows; i++) {
+				writer.write("P" + i + "," + genders[random.nextInt(genders.length)] + "," + maritals[random.nextInt(maritals.length)] + "\n");
+			}
+		}
+	}
+
+	/**
+	 * 基准测试: 行数为args[0](默认一千万, 约250MB)
+	 */
+	public static void main(String[] args) throws IOException {
+		long rows = args.length > 0 ? Long.parseLong(args[0]) : 10000000;
+		Path path = Files.createTempFile("persons", ".csv");
+		try {
+			write(path, rows, 7);
+			long fileBytes = Files.size(path);
+			MappedPersonSource source = new MappedPersonSource(path);
+			Filter[] filters = {
+					new FilterAnd(new MarriedFilter(), new FemaleFilter()),
+					new FilterOr(new SingleFilter(), new FemaleFilter()),
+					PredicateFilterPattern.male().and(new AttributeCriteria(Attribute.MARITAL, "Divorced")),
+			};
+
+			// 窗口很小时记录频繁落在窗口边界上, 结果应与默认窗口一致
+			long small = new MappedPersonSource(path, 64 << 10).count(filters[0]);
+			if (small != source.count(filters[0])) {
+				throw new IllegalStateException("Window boundary mismatch: " + small);
+			}
+
+			for (Filter filter : filters) {
+				long best = Long.MAX_VALUE;
+				long count = 0;
+				for (int round = 0; round < 3; round++) {
+					long begin = System.nanoTime();
+					count = source.count(filter);
+					best = Math.min(best, System.nanoTime() - begin);
+				}
+				System.out.printf("Mapped  %-40s -> %d, %.1f ms, %.0f MB/s%n", PredicateFilterPattern.compile(filter), count, best / 1e6, fileBytes / (best / 1e9) / (1 << 20));
+			}
+
+			// 对比: 先读入List<Person>再过滤, 数据量受堆大小限制
+			if (rows <= 10000000) {
+				long before = MemoryUsage.usedMemory();
+				long begin = System.nanoTime();
+				List<Person> persons = new ArrayList<Person>();
+				try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+					reader.readLine();
+					for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+						String[] fields = line.split(",");
+						persons.add(new Person(fields[0], fields[1], fields[2]));
+					}
+				}
+				long load = System.nanoTime() - begin;
+				long heap = MemoryUsage.usedMemory() - before;
+				begin = System.nanoTime();
+				int count = filters[0].filter(persons).size();
+				System.out.printf("Heap    %-40s -> %d, load %.1f ms + filter %.1f ms, %d MB heap%n", PredicateFilterPattern.compile(filters[0]), count, load / 1e6, (System.nanoTime() - begin) / 1e6, heap >> 20);
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+}
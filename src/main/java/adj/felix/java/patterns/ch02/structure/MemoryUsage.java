@@ -0,0 +1,23 @@
+package adj.felix.java.patterns.ch02.structure;
+
+/**
+ * <pre>
+ * ~~~~ <b>结构型模式示例共用的堆内存统计</b> ~~~~
+ * 各示例在main()中以两次读数之差估算对象占用的堆内存。读数前多次System.gc(), 只是尽量回收已不可达的对象, 结果仍是近似值。
+ * 使用者分布在composite、facade、flyweight等子包中, 因此类本身是public的, 但只提供这一个静态方法, 不可实例化。
+ * </pre>
+ * @author adolf felix
+ */
+public final class MemoryUsage {
+	private MemoryUsage() {
+	}
+
+	/** 回收后已使用的堆内存, 字节 **/
+	public static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
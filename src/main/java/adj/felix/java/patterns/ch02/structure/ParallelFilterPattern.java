@@ -0,0 +1,151 @@
+package adj.felix.java.patterns.ch02.structure;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FemaleFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Filter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FilterAnd;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.MarriedFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Person;
+
+/**
+ * <pre>
+ * ~~~~ <b>过滤器模式之并行过滤</b> ~~~~
+ * 所有Filter都在调用线程上遍历整个列表。并行过滤器把输入列表切分为若干块, 交给ForkJoinPool分别过滤, 再按块的原始顺序拼接结果。
+ * 01. 切分
+ *     (1) 列表长度不超过阈值时直接在调用线程上顺序过滤。
+ *     (2) 块大小取阈值与"长度 / (并行度 × 4)"中的较大者, 块数多于线程数, 以便工作窃取平衡负载。
+ *     (3) 每块以subList视图交给被包装的过滤器, 不复制输入; 任务按块区间二分递归, 叶子任务只处理一块。
+ *         输入不支持随机访问(如LinkedList)时, subList定位每块都要从头遍历, 因此先复制为ArrayList。
+ * 02. 合并
+ *     各块的结果按块号存放, 全部完成后一次性拼接到预先分配容量的列表中, 不做逐层合并的重复复制。
+ *     结果顺序与顺序过滤相同(块内顺序由被包装的过滤器决定)。
+ * </pre>
+ * @author adolf felix
+ */
+public class ParallelFilterPattern {
+	/** 并行过滤器 **/
+	static class ParallelFilter implements Filter {
+		private final Filter filter;
+		private final ForkJoinPool pool;
+		private final int threshold;
+
+		/**
+		 * @param filter 被包装的过滤器, 须能够在多个线程上同时调用
+		 * @param threshold 顺序过滤的阈值, 亦为块大小的下限
+		 */
+		public ParallelFilter(Filter filter, ForkJoinPool pool, int threshold) {
+			if (threshold < 1) {
+				throw new IllegalArgumentException("threshold must be positive: " + threshold);
+			}
+			this.filter = filter;
+			this.pool = pool;
+			this.threshold = threshold;
+		}
+
+		@Override
+		public List<Person> filter(List<Person> persons) {
+			int size = persons.size();
+			if (size <= threshold) {
+				return filter.filter(persons);
+			}
+
+			if (!(persons instanceof RandomAccess)) {
+				persons = new ArrayList<Person>(persons);
+			}
+			int chunk = Math.max(threshold, size / (pool.getParallelism() * 4));
+			int chunks = (size + chunk - 1) / chunk;
+			List<List<Person>> results = new ArrayList<List<Person>>(Collections.<List<Person>> nCopies(chunks, null));
+			pool.invoke(new ChunkTask(persons, chunk, results, 0, chunks));
+
+			int total = 0;
+			for (List<Person> result : results) {
+				total += result.size();
+			}
+			List<Person> merged = new ArrayList<Person>(total);
+			for (List<Person> result : results) {
+				merged.addAll(result);
+			}
+			return merged;
+		}
+
+		/** 过滤块区间[from, to) **/
+		private class ChunkTask extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+			private final List<Person> persons;
+			private final int chunk;
+			private final List<List<Person>> results;
+			private final int from;
+			private final int to;
+
+			ChunkTask(List<Person> persons, int chunk, List<List<Person>> results, int from, int to) {
+				this.persons = persons;
+				this.chunk = chunk;
+				this.results = results;
+				this.from = from;
+				this.to = to;
+			}
+
+			@Override
+			protected void compute() {
+				if (to - from > 1) {
+					int middle = (from + to) >>> 1;
+					invokeAll(new ChunkTask(persons, chunk, results, from, middle), new ChunkTask(persons, chunk, results, middle, to));
+					return;
+				}
+				int begin = from * chunk;
+				int end = Math.min(begin + chunk, persons.size());
+				results.set(from, filter.filter(persons.subList(begin, end)));
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		List<Person> persons = PredicateFilterPattern.generate(count, 7);
+
+		Filter[] filters = {
+				PredicateFilterPattern.married().and(PredicateFilterPattern.female()),
+				new FilterAnd(new MarriedFilter(), new FemaleFilter()),
+		};
+		String[] names = { "Criteria", "FilterAnd" };
+		for (int i = 0; i < filters.length; i++) {
+			List<Person> expected = filters[i].filter(persons);
+			long sequential = measure(filters[i], persons, expected);
+			System.out.printf("%-9s Persons = %d, Sequential = %.1f ms%n", names[i], count, sequential / 1e6);
+			for (int threads = 1; threads <= maxThreads; threads++) {
+				ForkJoinPool pool = new ForkJoinPool(threads);
+				long parallel = measure(new ParallelFilter(filters[i], pool, 8192), persons, expected);
+				pool.shutdown();
+				System.out.printf("%-9s Threads = %2d, Parallel = %.1f ms, Speedup = %.2fx%n", names[i], threads, parallel / 1e6, (double) sequential / parallel);
+			}
+		}
+
+		// 不支持随机访问的输入
+		List<Person> linked = new LinkedList<Person>(persons.subList(0, Math.min(count, 1000000)));
+		List<Person> expected = filters[0].filter(linked);
+		long parallel = measure(new ParallelFilter(filters[0], ForkJoinPool.commonPool(), 8192), linked, expected);
+		System.out.printf("%-9s LinkedList = %d, Parallel = %.1f ms%n", names[0], linked.size(), parallel / 1e6);
+	}
+
+	/** 多轮过滤取最短耗时, 并校验结果与顺序过滤一致 **/
+	private static long measure(Filter filter, List<Person> persons, List<Person> expected) {
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < 5; round++) {
+			long begin = System.nanoTime();
+			List<Person> result = filter.filter(persons);
+			best = Math.min(best, System.nanoTime() - begin);
+			if (!result.equals(expected)) {
+				throw new IllegalStateException("Result differs from sequential filtering");
+			}
+		}
+		return best;
+	}
+}
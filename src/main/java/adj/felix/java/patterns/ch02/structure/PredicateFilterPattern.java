@@ -0,0 +1,266 @@
+package adj.felix.java.patterns.ch02.structure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FemaleFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Filter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FilterAnd;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FilterOr;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.MaleFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.MarriedFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Person;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.SingleFilter;
+
+/**
+ * <pre>
+ * ~~~~ <b>过滤器模式之谓词树</b> ~~~~
+ * {@link FilterPattern}中FilterAnd先过滤出中间列表再过滤第二次, FilterOr两次过滤后以List.contains合并, 复杂度为O(n·m)。
+ * 谓词过滤器把过滤条件组合成一棵谓词树, 每条记录只对整棵树求值一次:
+ *     (1) AndCriteria/OrCriteria短路求值, 不产生中间列表。
+ *     (2) Criteria实现Filter接口, filter(List)一次遍历输出结果, 顺序与输入一致。
+ *     (3) compile()将现有的MaleFilter、FilterAnd等过滤器编译为谓词树。
+ * </pre>
+ * @author adolf felix
+ */
+public class PredicateFilterPattern {
+	/** 过滤所依据的属性 **/
+	enum Attribute {
+		GENDER {
+			@Override
+			String valueOf(Person person) {
+				return person.gender;
+			}
+		},
+		MARITAL {
+			@Override
+			String valueOf(Person person) {
+				return person.marital;
+			}
+		};
+
+		abstract String valueOf(Person person);
+	}
+
+	/** 谓词过滤器 **/
+	static abstract class Criteria implements Filter {
+		/** 单条记录是否满足条件 **/
+		abstract boolean test(Person person);
+
+		@Override
+		public List<Person> filter(List<Person> persons) {
+			List<Person> result = new ArrayList<>();
+
+			for (Person person : persons) {
+				if (test(person)) {
+					result.add(person);
+				}
+			}
+
+			return result;
+		}
+
+		public Criteria and(Criteria other) {
+			return new AndCriteria(this, other);
+		}
+
+		public Criteria or(Criteria other) {
+			return new OrCriteria(this, other);
+		}
+
+		public Criteria negate() {
+			return new NotCriteria(this);
+		}
+	}
+
+	/** 属性等于某个值(忽略大小写) **/
+	static final class AttributeCriteria extends Criteria {
+		final Attribute attribute;
+		final String value;
+
+		public AttributeCriteria(Attribute attribute, String value) {
+			this.attribute = attribute;
+			this.value = value;
+		}
+
+		@Override
+		boolean test(Person person) {
+			return value.equalsIgnoreCase(attribute.valueOf(person));
+		}
+
+		@Override
+		public String toString() {
+			return attribute + " = " + value;
+		}
+	}
+
+	/** And Criteria **/
+	static final class AndCriteria extends Criteria {
+		final Criteria left;
+		final Criteria right;
+
+		public AndCriteria(Criteria left, Criteria right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		boolean test(Person person) {
+			return left.test(person) && right.test(person);
+		}
+
+		@Override
+		public String toString() {
+			return "(" + left + " AND " + right + ")";
+		}
+	}
+
+	/** Or Criteria **/
+	static final class OrCriteria extends Criteria {
+		final Criteria left;
+		final Criteria right;
+
+		public OrCriteria(Criteria left, Criteria right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		boolean test(Person person) {
+			return left.test(person) || right.test(person);
+		}
+
+		@Override
+		public String toString() {
+			return "(" + left + " OR " + right + ")";
+		}
+	}
+
+	/** Not Criteria **/
+	static final class NotCriteria extends Criteria {
+		final Criteria criteria;
+
+		public NotCriteria(Criteria criteria) {
+			this.criteria = criteria;
+		}
+
+		@Override
+		boolean test(Person person) {
+			return !criteria.test(person);
+		}
+
+		@Override
+		public String toString() {
+			return "NOT " + criteria;
+		}
+	}
+
+	public static Criteria male() {
+		return new AttributeCriteria(Attribute.GENDER, "MALE");
+	}
+
+	public static Criteria female() {
+		return new AttributeCriteria(Attribute.GENDER, "FEMALE");
+	}
+
+	public static Criteria single() {
+		return new AttributeCriteria(Attribute.MARITAL, "SINGLE");
+	}
+
+	public static Criteria married() {
+		return new AttributeCriteria(Attribute.MARITAL, "MARRIED");
+	}
+
+	/**
+	 * 将{@link FilterPattern}中的过滤器编译为谓词树
+	 * @throws IllegalArgumentException 无法逐条求值的过滤器
+	 */
+	public static Criteria compile(Filter filter) {
+		if (filter instanceof Criteria) {
+			return (Criteria) filter;
+		}
+		if (filter instanceof MaleFilter) {
+			return male();
+		}
+		if (filter instanceof FemaleFilter) {
+			return female();
+		}
+		if (filter instanceof SingleFilter) {
+			return single();
+		}
+		if (filter instanceof MarriedFilter) {
+			return married();
+		}
+		if (filter instanceof FilterAnd) {
+			FilterAnd and = (FilterAnd) filter;
+			return new AndCriteria(compile(and.filter), compile(and.otherFilter));
+		}
+		if (filter instanceof FilterOr) {
+			FilterOr or = (FilterOr) filter;
+			return new OrCriteria(compile(or.filter), compile(or.otherFilter));
+		}
+		throw new IllegalArgumentException("Unsupported filter: " + filter.getClass().getName());
+	}
+
+	/** 随机生成人员 **/
+	static List<Person> generate(int count, long seed) {
+		String[] genders = { "Male", "Female" };
+		String[] maritals = { "Single", "Married", "Divorced" };
+		Random random = new Random(seed);
+		List<Person> persons = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			persons.add(new Person("P" + i, genders[random.nextInt(genders.length)], maritals[random.nextInt(maritals.length)]));
+		}
+		return persons;
+	}
+
+	public static void main(String[] args) {
+		Filter marriedFemale = compile(new FilterAnd(new MarriedFilter(), new FemaleFilter()));
+		Filter singleOrFemale = single().or(female());
+		System.out.println(marriedFemale + " -> " + marriedFemale.filter(generate(10, 7)));
+		System.out.println(singleOrFemale + " -> " + singleOrFemale.filter(generate(10, 7)));
+
+		// FilterOr以List.contains合并, 数据量较大时不再参与对比
+		int max = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		for (int count = 10000; count <= max; count *= 10) {
+			List<Person> persons = generate(count, 7);
+			Filter legacyAnd = new FilterAnd(new MarriedFilter(), new FemaleFilter());
+			Filter legacyOr = new FilterOr(new SingleFilter(), new FemaleFilter());
+			Filter criteriaAnd = compile(legacyAnd);
+			Filter criteriaOr = compile(legacyOr);
+
+			long[] and = compare(legacyAnd, criteriaAnd, persons);
+			String or = "-";
+			if (count <= 100000) {
+				long[] times = compare(legacyOr, criteriaOr, persons);
+				or = String.format("%.2f / %.2f ms", times[0] / 1e6, times[1] / 1e6);
+			}
+			else {
+				long begin = System.nanoTime();
+				criteriaOr.filter(persons);
+				or = String.format("- / %.2f ms", (System.nanoTime() - begin) / 1e6);
+			}
+			System.out.printf("Persons = %8d, AND (legacy / criteria) = %.2f / %.2f ms, OR = %s%n", count, and[0] / 1e6, and[1] / 1e6, or);
+		}
+	}
+
+	/** 比较两个过滤器的耗时并校验结果数量 **/
+	private static long[] compare(Filter legacy, Filter criteria, List<Person> persons) {
+		long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+		for (int round = 0; round < 3; round++) {
+			long begin = System.nanoTime();
+			int legacySize = legacy.filter(persons).size();
+			best[0] = Math.min(best[0], System.nanoTime() - begin);
+
+			begin = System.nanoTime();
+			int criteriaSize = criteria.filter(persons).size();
+			best[1] = Math.min(best[1], System.nanoTime() - begin);
+
+			if (legacySize != criteriaSize) {
+				throw new IllegalStateException(legacySize + " != " + criteriaSize);
+			}
+		}
+		return best;
+	}
+}
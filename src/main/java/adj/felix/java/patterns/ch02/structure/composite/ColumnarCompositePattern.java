@@ -0,0 +1,351 @@
+package adj.felix.java.patterns.ch02.structure.composite;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import adj.felix.java.patterns.ch02.structure.MemoryUsage;
+import adj.felix.java.patterns.ch02.structure.composite.PathIndexCompositePattern.Root;
+
+/**
+ * <pre>
+ * ~~~~ <b>组合模式之列式存储</b> ~~~~
+ * 以基本类型数组保存整棵树, 每个节点只是一个int下标, 不再是独立的对象。
+ * 01. 存储结构
+ *     (1) parent/firstChild/lastChild/nextSibling: int[], 以"首子-兄弟"链表示树形结构, -1表示无。
+ *     (2) nameOffset: int[], 节点名称在共享字节池names中的起始位置, 名称以UTF-8编码, 结束位置即下一个节点的起始位置。
+ *     (3) size: long[], 文件大小; folder: long[]位图, 标记树枝节点。
+ * 02. 视图
+ *     NodeView以(树, 下标)实现{@link PathIndexCompositePattern.Root}, 只在访问时创建, 可直接交给现有的遍历代码使用。
+ *     视图为只读, add()/remove()返回false, 增加节点使用ColumnarTree.addFolder()/addFile()。
+ * 03. 与对象树相比, 每个节点省去对象头、LinkedHashMap及其Entry的开销, 遍历时按下标顺序访问数组, 缓存友好。
+ * </pre>
+ * @author adolf.felix
+ */
+public class ColumnarCompositePattern {
+	/** 列式存储的构件树, 节点0为根 **/
+	static class ColumnarTree {
+		private static final int NONE = -1;
+
+		private int count;
+		private int[] parent;
+		private int[] firstChild;
+		private int[] lastChild;
+		private int[] nextSibling;
+		private int[] nameOffset;
+		private long[] size;
+		private long[] folder;
+		private byte[] names;
+
+		public ColumnarTree(String rootName, int capacity) {
+			capacity = Math.max(capacity, 1);
+			parent = new int[capacity];
+			firstChild = new int[capacity];
+			lastChild = new int[capacity];
+			nextSibling = new int[capacity];
+			nameOffset = new int[capacity + 1];
+			size = new long[capacity];
+			folder = new long[(capacity + 63) >>> 6];
+			names = new byte[capacity * 8];
+			append(NONE, rootName, 0, true);
+		}
+
+		/** 在parent下添加树枝节点, 返回新节点下标 **/
+		public int addFolder(int parent, String name) {
+			return append(parent, name, 0, true);
+		}
+
+		/** 在parent下添加树叶节点, 返回新节点下标 **/
+		public int addFile(int parent, String name, long size) {
+			return append(parent, name, size, false);
+		}
+
+		private int append(int parentNode, String name, long fileSize, boolean isFolder) {
+			if (parentNode != NONE && !isFolder(parentNode)) {
+				throw new IllegalArgumentException("Not a folder: " + name(parentNode));
+			}
+			ensureCapacity(count + 1);
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			int offset = nameOffset[count];
+			if (offset + bytes.length > names.length) {
+				names = Arrays.copyOf(names, Math.max(names.length * 2, offset + bytes.length));
+			}
+			System.arraycopy(bytes, 0, names, offset, bytes.length);
+
+			int node = count++;
+			nameOffset[count] = offset + bytes.length;
+			parent[node] = parentNode;
+			firstChild[node] = NONE;
+			lastChild[node] = NONE;
+			nextSibling[node] = NONE;
+			size[node] = fileSize;
+			if (isFolder) {
+				folder[node >>> 6] |= 1L << node;
+			}
+			if (parentNode != NONE) {
+				if (firstChild[parentNode] == NONE) {
+					firstChild[parentNode] = node;
+				}
+				else {
+					nextSibling[lastChild[parentNode]] = node;
+				}
+				lastChild[parentNode] = node;
+			}
+			return node;
+		}
+
+		private void ensureCapacity(int capacity) {
+			if (capacity <= parent.length) {
+				return;
+			}
+			int length = Math.max(capacity, parent.length * 2);
+			parent = Arrays.copyOf(parent, length);
+			firstChild = Arrays.copyOf(firstChild, length);
+			lastChild = Arrays.copyOf(lastChild, length);
+			nextSibling = Arrays.copyOf(nextSibling, length);
+			nameOffset = Arrays.copyOf(nameOffset, length + 1);
+			size = Arrays.copyOf(size, length);
+			folder = Arrays.copyOf(folder, (length + 63) >>> 6);
+		}
+
+		public int count() {
+			return count;
+		}
+
+		public boolean isFolder(int node) {
+			return (folder[node >>> 6] & (1L << node)) != 0;
+		}
+
+		public int parent(int node) {
+			return parent[node];
+		}
+
+		public int firstChild(int node) {
+			return firstChild[node];
+		}
+
+		public int nextSibling(int node) {
+			return nextSibling[node];
+		}
+
+		public long size(int node) {
+			return size[node];
+		}
+
+		public String name(int node) {
+			return new String(names, nameOffset[node], nameOffset[node + 1] - nameOffset[node], StandardCharsets.UTF_8);
+		}
+
+		/** 按名称查找下级节点, 逐字节比较, 不解码名称 **/
+		public int child(int node, String name) {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+				int offset = nameOffset[child];
+				if (nameOffset[child + 1] - offset != bytes.length) {
+					continue;
+				}
+				int i = 0;
+				while (i < bytes.length && names[offset + i] == bytes[i]) {
+					i++;
+				}
+				if (i == bytes.length) {
+					return child;
+				}
+			}
+			return NONE;
+		}
+
+		/** 以显式int栈先序遍历node所在子树, 累加大小 **/
+		public long totalSize(int node) {
+			int[] stack = new int[64];
+			int top = 0;
+			stack[0] = node;
+			long total = 0;
+			while (top >= 0) {
+				int current = stack[top--];
+				total += size[current];
+				for (int child = firstChild[current]; child != NONE; child = nextSibling[child]) {
+					if (++top == stack.length) {
+						stack = Arrays.copyOf(stack, stack.length * 2);
+					}
+					stack[top] = child;
+				}
+			}
+			return total;
+		}
+
+		/** 根节点视图 **/
+		public Root root() {
+			return new NodeView(this, 0);
+		}
+	}
+
+	/** 节点视图 **/
+	static class NodeView implements Root {
+		private final ColumnarTree tree;
+		private final int node;
+
+		public NodeView(ColumnarTree tree, int node) {
+			this.tree = tree;
+			this.node = node;
+		}
+
+		@Override
+		public boolean add(Root root) {
+			return false;
+		}
+
+		@Override
+		public boolean remove(Root root) {
+			return false;
+		}
+
+		@Override
+		public Root getChild(String name) {
+			if (!tree.isFolder(node)) {
+				return null;
+			}
+			int child = tree.child(node, name);
+			return child < 0 ? null : new NodeView(tree, child);
+		}
+
+		@Override
+		public Collection<Root> getChilds() {
+			if (!tree.isFolder(node)) {
+				return null;
+			}
+			return new AbstractCollection<Root>() {
+				@Override
+				public Iterator<Root> iterator() {
+					return new Iterator<Root>() {
+						private int next = tree.firstChild(node);
+
+						@Override
+						public boolean hasNext() {
+							return next >= 0;
+						}
+
+						@Override
+						public Root next() {
+							if (next < 0) {
+								throw new NoSuchElementException();
+							}
+							Root view = new NodeView(tree, next);
+							next = tree.nextSibling(next);
+							return view;
+						}
+					};
+				}
+
+				@Override
+				public boolean isEmpty() {
+					return tree.firstChild(node) < 0;
+				}
+
+				@Override
+				public int size() {
+					int size = 0;
+					for (int child = tree.firstChild(node); child >= 0; child = tree.nextSibling(child)) {
+						size++;
+					}
+					return size;
+				}
+			};
+		}
+
+		@Override
+		public String getDescribe() {
+			return tree.name(node);
+		}
+
+		@Override
+		public long getSize() {
+			return tree.size(node);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof NodeView && ((NodeView) obj).tree == tree && ((NodeView) obj).node == node;
+		}
+
+		@Override
+		public int hashCode() {
+			return node;
+		}
+
+		@Override
+		public String toString() {
+			return getDescribe();
+		}
+	}
+
+	/** 与{@link PathIndexCompositePattern#generate(int, int)}形状相同的列式树 **/
+	static ColumnarTree generate(int nodes, int fanout) {
+		ColumnarTree tree = new ColumnarTree("root", nodes);
+		int folders = (nodes - 1 + fanout - 1) / fanout;
+		int head = 0;
+		while (tree.count() < nodes) {
+			int parent = head++;
+			for (int i = 0; i < fanout && tree.count() < nodes; i++) {
+				int index = tree.count();
+				if (index >= folders) {
+					tree.addFile(parent, "f" + index, index);
+				}
+				else {
+					tree.addFolder(parent, "d" + index);
+				}
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * 基准测试: 节点数为args[0](默认一千万), 比较对象树与列式树的堆占用及遍历耗时。
+	 */
+	public static void main(String[] args) {
+		int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+
+		long before = MemoryUsage.usedMemory();
+		ColumnarTree columnar = generate(nodes, 16);
+		long columnarBytes = MemoryUsage.usedMemory() - before;
+
+		before = MemoryUsage.usedMemory();
+		Root objects = PathIndexCompositePattern.generate(nodes, 16);
+		long objectBytes = MemoryUsage.usedMemory() - before;
+
+		System.out.println("Heap: Object = " + objectBytes / nodes + " bytes/node, Columnar = " + columnarBytes / nodes + " bytes/node");
+		System.out.println("Find = " + PathIndexCompositePattern.find(columnar.root(), "d1/d17"));
+
+		long objectSize = ((PathIndexCompositePattern.Folder) objects).getTotalSize();
+		for (int round = 0; round < 5; round++) {
+			// 只计游标遍历的耗时
+			long begin = System.nanoTime();
+			IterativeCompositeTraversal.TreeCursor cursor = new IterativeCompositeTraversal.TreeCursor(objects);
+			long objectWalk = 0;
+			while (cursor.next()) {
+				objectWalk += cursor.node().getSize();
+			}
+			long objectTime = System.nanoTime() - begin;
+
+			begin = System.nanoTime();
+			long columnarWalk = columnar.totalSize(0);
+			long columnarTime = System.nanoTime() - begin;
+
+			begin = System.nanoTime();
+			IterativeCompositeTraversal.TreeCursor viewCursor = new IterativeCompositeTraversal.TreeCursor(columnar.root());
+			long viewWalk = 0;
+			while (viewCursor.next()) {
+				viewWalk += viewCursor.node().getSize();
+			}
+			long viewTime = System.nanoTime() - begin;
+
+			if (objectWalk != columnarWalk || objectWalk != viewWalk || objectWalk != objectSize) {
+				throw new IllegalStateException(objectWalk + " != " + columnarWalk + " != " + viewWalk);
+			}
+			System.out.printf("Traversal: Object = %.2f ms, Columnar = %.2f ms, ColumnarView = %.2f ms%n", objectTime / 1e6, columnarTime / 1e6, viewTime / 1e6);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package adj.felix.java.patterns.ch02.structure.composite;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+import adj.felix.java.patterns.ch02.structure.composite.PathIndexCompositePattern.Root;
+
+/**
+ * <pre>
+ * ~~~~ <b>组合模式之并行遍历</b> ~~~~
+ * 基于Fork/Join对{@link PathIndexCompositePattern}的构件树做并行聚合(节点数、总大小、满足谓词的节点数)。
+ * 01. 拆分策略
+ *     (1) 每个任务以显式栈遍历所负责的子树, 不依赖递归深度。
+ *     (2) 遇到下级数量不少于splitThreshold的树枝时, 若当前线程积压的任务不多(getSurplusQueuedTaskCount), 则拆分为新任务, 否则就地遍历。
+ *         下级数量作为子树规模的估计值, 积压量反映其他线程是否空闲, 因此拆分粒度随树形和负载自适应。
+ * 02. 确定性
+ *     聚合结果只包含整数求和, 与拆分方式和执行顺序无关, 多次执行结果一致。
+ * </pre>
+ * @author adolf.felix
+ */
+public class ForkJoinCompositeTraversal {
+	/** 默认拆分阈值: 下级数量 **/
+	static final int SPLIT_THRESHOLD = 8;
+	/** 当前线程积压任务超过该值时不再拆分 **/
+	static final int MAX_SURPLUS = 3;
+
+	/** 聚合结果 **/
+	static class Aggregate {
+		long folders;
+		long files;
+		long size;
+		long matches;
+
+		void merge(Aggregate other) {
+			folders += other.folders;
+			files += other.files;
+			size += other.size;
+			matches += other.matches;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Aggregate)) {
+				return false;
+			}
+			Aggregate other = (Aggregate) obj;
+			return folders == other.folders && files == other.files && size == other.size && matches == other.matches;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(folders) * 31 + Long.hashCode(size);
+		}
+
+		@Override
+		public String toString() {
+			return "{folders=" + folders + ", files=" + files + ", size=" + size + ", matches=" + matches + "}";
+		}
+	}
+
+	/** 子树聚合任务 **/
+	static class AggregateTask extends RecursiveTask<Aggregate> {
+		private static final long serialVersionUID = 1L;
+
+		private final Root root;
+		private final Predicate<Root> predicate;
+		private final int splitThreshold;
+
+		public AggregateTask(Root root, Predicate<Root> predicate, int splitThreshold) {
+			this.root = root;
+			this.predicate = predicate;
+			this.splitThreshold = splitThreshold;
+		}
+
+		@Override
+		protected Aggregate compute() {
+			Aggregate aggregate = new Aggregate();
+			List<AggregateTask> forks = new ArrayList<AggregateTask>();
+			ArrayDeque<Root> stack = new ArrayDeque<Root>();
+			stack.push(root);
+
+			while (!stack.isEmpty()) {
+				Root node = stack.pop();
+				Collection<Root> childs = node.getChilds();
+				if (predicate.test(node)) {
+					aggregate.matches++;
+				}
+				if (childs == null) {
+					aggregate.files++;
+					aggregate.size += node.getSize();
+					continue;
+				}
+
+				aggregate.folders++;
+				aggregate.size += node.getSize();
+				for (Root child : childs) {
+					Collection<Root> grandChilds = child.getChilds();
+					if (grandChilds != null && grandChilds.size() >= splitThreshold && getSurplusQueuedTaskCount() < MAX_SURPLUS) {
+						AggregateTask task = new AggregateTask(child, predicate, splitThreshold);
+						task.fork();
+						forks.add(task);
+					}
+					else {
+						stack.push(child);
+					}
+				}
+			}
+
+			for (AggregateTask task : forks) {
+				aggregate.merge(task.join());
+			}
+			return aggregate;
+		}
+	}
+
+	/** 在指定线程池中聚合整棵树 **/
+	public static Aggregate aggregate(ForkJoinPool pool, Root root, Predicate<Root> predicate) {
+		return pool.invoke(new AggregateTask(root, predicate, SPLIT_THRESHOLD));
+	}
+
+	/**
+	 * 基准测试: 生成节点数为args[0](默认一千万)的树, 依次以1..N个线程聚合, 输出耗时与加速比。
+	 * 一千万节点约需2GB堆内存, 如: java -Xmx4g ForkJoinCompositeTraversal 10000000
+	 */
+	public static void main(String[] args) {
+		int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		Root tree = PathIndexCompositePattern.generate(nodes, 16);
+		Predicate<Root> predicate = root -> root.getDescribe().endsWith("7");
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		Aggregate expect = null;
+		long baseline = 0;
+		for (int parallelism = 1; ; parallelism = Math.min(parallelism * 2, cores)) {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			long best = Long.MAX_VALUE;
+			Aggregate result = null;
+			for (int round = 0; round < 5; round++) {
+				long begin = System.nanoTime();
+				result = aggregate(pool, tree, predicate);
+				best = Math.min(best, System.nanoTime() - begin);
+			}
+			pool.shutdown();
+
+			if (expect == null) {
+				expect = result;
+				baseline = best;
+			}
+			else if (!expect.equals(result)) {
+				throw new IllegalStateException("Nondeterministic result: " + result + " != " + expect);
+			}
+			System.out.printf("Threads = %2d, Time = %8.2f ms, Speedup = %5.2f, Result = %s%n", parallelism, best / 1e6, (double) baseline / best, result);
+			if (parallelism == cores) {
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package adj.felix.java.patterns.ch02.structure.composite;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import adj.felix.java.patterns.ch02.structure.composite.PathIndexCompositePattern.Folder;
+import adj.felix.java.patterns.ch02.structure.composite.PathIndexCompositePattern.Root;
+
+/**
+ * <pre>
+ * ~~~~ <b>组合模式之迭代遍历</b> ~~~~
+ * 以显式栈代替递归, 对构件树做先序遍历, 树的深度只受堆内存限制, 不会StackOverflowError。
+ * 01. 组成
+ *     (1) TreeCursor: 游标, next()移动到下一个节点, node()/depth()读取当前节点及其深度。
+ *         栈中保存各层下级构件的迭代器, 除每个树枝的迭代器外, 遍历过程不产生其他对象。
+ *     (2) TreeSpliterator: 基于游标的Spliterator, 可转换为Stream。
+ *     (3) list(): 将树形结构写入Writer, 缩进取自复用的字符缓冲区, 不拼接字符串。
+ * </pre>
+ * @author adolf.felix
+ */
+public class IterativeCompositeTraversal {
+	/** 先序遍历游标 **/
+	static class TreeCursor {
+		private Root start;
+		private Root node;
+		private int depth = -1;
+		private int top = -1;
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private Iterator<Root>[] stack = new Iterator[16];
+
+		public TreeCursor(Root root) {
+			this.start = root;
+		}
+
+		/** 移动到下一个节点, 遍历结束时返回false **/
+		public boolean next() {
+			if (start != null) {
+				node = start;
+				start = null;
+				depth = 0;
+				push(node.getChilds());
+				return true;
+			}
+
+			while (top >= 0) {
+				Iterator<Root> iterator = stack[top];
+				if (iterator.hasNext()) {
+					node = iterator.next();
+					depth = top + 1;
+					push(node.getChilds());
+					return true;
+				}
+				stack[top--] = null;
+			}
+
+			node = null;
+			depth = -1;
+			return false;
+		}
+
+		/** 当前节点 **/
+		public Root node() {
+			return node;
+		}
+
+		/** 当前节点的深度, 起始节点为0 **/
+		public int depth() {
+			return depth;
+		}
+
+		private void push(Collection<Root> childs) {
+			if (childs == null || childs.isEmpty()) {
+				return;
+			}
+			if (++top == stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			}
+			stack[top] = childs.iterator();
+		}
+	}
+
+	/** 基于游标的Spliterator, 不支持拆分 **/
+	static class TreeSpliterator implements Spliterator<Root> {
+		private final TreeCursor cursor;
+
+		public TreeSpliterator(Root root) {
+			this.cursor = new TreeCursor(root);
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Root> action) {
+			if (!cursor.next()) {
+				return false;
+			}
+			action.accept(cursor.node());
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super Root> action) {
+			while (cursor.next()) {
+				action.accept(cursor.node());
+			}
+		}
+
+		@Override
+		public Spliterator<Root> trySplit() {
+			return null;
+		}
+
+		@Override
+		public long estimateSize() {
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL;
+		}
+	}
+
+	/** 以先序遍历的顺序输出所有节点 **/
+	public static Stream<Root> stream(Root root) {
+		return StreamSupport.stream(new TreeSpliterator(root), false);
+	}
+
+	/** 将树形结构写入out, 每层缩进两个空格 **/
+	public static void list(Root root, Writer out) throws IOException {
+		char[] indent = new char[64];
+		Arrays.fill(indent, ' ');
+
+		TreeCursor cursor = new TreeCursor(root);
+		while (cursor.next()) {
+			int depth = cursor.depth();
+			if (depth > 0) {
+				int width = depth * 2;
+				if (width > indent.length) {
+					indent = new char[Math.max(width, indent.length * 2)];
+					Arrays.fill(indent, ' ');
+				}
+				out.write(indent, 0, width);
+				out.write("|-- ");
+			}
+			out.write(cursor.node().getDescribe());
+			out.write('\n');
+		}
+		out.flush();
+	}
+
+	public static void main(String[] args) throws IOException {
+		Root c = new Folder("C:"); // C盘
+		Root programFiles = new Folder("Program Files");
+		Root adobeSoft = new Folder("Adobe Soft");
+		c.add(programFiles);
+		programFiles.add(adobeSoft);
+		adobeSoft.add(new PathIndexCompositePattern.File("Template.java"));
+		c.add(new Folder("Program Files(x86)"));
+
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+		list(c, out);
+
+		// 深度为一百万的目录链, 自下而上构建, 每次add()时上级尚无上级, 聚合值的传播为O(1)
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		Root deep = new Folder(depth > 1 ? "d" + (depth - 1) : "deep");
+		for (int i = depth - 2; i >= 0; i--) {
+			Root parent = new Folder(i > 0 ? "d" + i : "deep");
+			parent.add(deep);
+			deep = parent;
+		}
+
+		TreeCursor cursor = new TreeCursor(deep);
+		int maxDepth = 0;
+		long begin = System.nanoTime();
+		while (cursor.next()) {
+			maxDepth = Math.max(maxDepth, cursor.depth());
+		}
+		long elapsed = System.nanoTime() - begin;
+		System.out.println("Nodes = " + stream(deep).count() + ", MaxDepth = " + maxDepth + ", Time = " + elapsed / 1000000 + " ms");
+	}
+}
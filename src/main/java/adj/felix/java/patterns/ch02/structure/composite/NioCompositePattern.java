@@ -0,0 +1,215 @@
+package adj.felix.java.patterns.ch02.structure.composite;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SecureDirectoryStream;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+import adj.felix.java.patterns.ch02.structure.composite.PathIndexCompositePattern.File;
+import adj.felix.java.patterns.ch02.structure.composite.PathIndexCompositePattern.Root;
+
+/**
+ * <pre>
+ * ~~~~ <b>组合模式之文件系统懒加载</b> ~~~~
+ * 以真实目录作为{@link PathIndexCompositePattern.Root}的数据来源, 目录在首次访问下级构件时才读取。
+ * 01. 特点
+ *     (1) 下级构件通过DirectoryStream读取, 每个条目以一次readAttributes读取全部基本属性(类型、大小)。
+ *         JDK没有批量读取属性的接口; 目录流为SecureDirectoryStream时(如Linux), 属性相对于已打开的目录读取,
+ *         不再为每个条目从头解析完整路径, 否则退回Files.readAttributes()。
+ *     (2) 已读取的目录以路径为键保存在有容量上限的LRU缓存中, 超出上限时淘汰最久未访问的目录, 再次访问时重新读取。
+ *         以路径为键, 重新读取上级目录后新建的LazyFolder仍命中原有的缓存项, 缓存中不会残留无法再访问的目录。
+ *     (3) 无法读取的目录或条目被跳过并计数, 并记录最近一次跳过的路径及原因, 不会中断整个遍历。
+ *     (4) 只读, add()/remove()返回false。
+ * 02. 配合{@link IterativeCompositeTraversal}使用时, 遍历到某个目录才读取该目录, 输出可以立即开始, 无需等待整棵树扫描完成。
+ * </pre>
+ * @author adolf.felix
+ */
+public class NioCompositePattern {
+	/** 已读取目录的缓存, 按访问顺序淘汰 **/
+	static class ChildCache {
+		private final Map<Path, Map<String, Root>> cache;
+		private final LongAdder skipped = new LongAdder();
+		private Path lastSkipped;
+		private IOException lastFailure;
+
+		public ChildCache(final int maxFolders) {
+			this.cache = new LinkedHashMap<Path, Map<String, Root>>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Path, Map<String, Root>> eldest) {
+					return size() > maxFolders;
+				}
+			};
+		}
+
+		synchronized Map<String, Root> get(Path path) {
+			return cache.get(path);
+		}
+
+		synchronized void put(Path path, Map<String, Root> childs) {
+			cache.put(path, childs);
+		}
+
+		synchronized int size() {
+			return cache.size();
+		}
+
+		/** 记录无法读取的目录或条目, 路径与原因一同更新 **/
+		synchronized void skip(Path path, IOException e) {
+			skipped.increment();
+			lastSkipped = path;
+			lastFailure = e;
+		}
+
+		/** 已跳过的目录及条目数 **/
+		public long skipped() {
+			return skipped.sum();
+		}
+
+		/** 最近一次跳过的目录或条目, 没有跳过时为null **/
+		public synchronized Path lastSkipped() {
+			return lastSkipped;
+		}
+
+		/** 最近一次读取失败的原因, 没有失败时为null **/
+		public synchronized IOException lastFailure() {
+			return lastFailure;
+		}
+	}
+
+	/**
+	 * Composite(树枝构件), 下级构件在首次访问时从目录读取。
+	 */
+	static class LazyFolder implements Root {
+		private final Path path;
+		private final String describe;
+		private final ChildCache cache;
+
+		public LazyFolder(Path path, ChildCache cache) {
+			this.path = path;
+			this.describe = path.getFileName() == null ? path.toString() : path.getFileName().toString();
+			this.cache = cache;
+		}
+
+		@Override
+		public boolean add(Root root) {
+			return false;
+		}
+
+		@Override
+		public boolean remove(Root root) {
+			return false;
+		}
+
+		@Override
+		public Root getChild(String name) {
+			return childs().get(name);
+		}
+
+		@Override
+		public Collection<Root> getChilds() {
+			return childs().values();
+		}
+
+		@Override
+		public String getDescribe() {
+			return describe;
+		}
+
+		@Override
+		public long getSize() {
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return path.toString();
+		}
+
+		private Map<String, Root> childs() {
+			Map<String, Root> childs = cache.get(path);
+			if (childs == null) {
+				childs = load();
+				cache.put(path, childs);
+			}
+			return childs;
+		}
+
+		/** 读取目录, 下级构件按名称排序, 保证遍历顺序稳定; 目录无法读取时视为空目录 **/
+		private Map<String, Root> load() {
+			List<Root> entries = new ArrayList<Root>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+				for (Path entry : stream) {
+					BasicFileAttributes attributes;
+					try {
+						attributes = attributes(stream, entry);
+					} catch (IOException e) {
+						cache.skip(entry, e);
+						continue;
+					}
+					if (attributes.isDirectory()) {
+						entries.add(new LazyFolder(entry, cache));
+					}
+					else {
+						entries.add(new File(entry.getFileName().toString(), attributes.size()));
+					}
+				}
+			} catch (IOException e) {
+				cache.skip(path, e);
+			} catch (DirectoryIteratorException e) {
+				cache.skip(path, e.getCause());
+			}
+
+			Collections.sort(entries, (a, b) -> a.getDescribe().compareTo(b.getDescribe()));
+			Map<String, Root> childs = new LinkedHashMap<String, Root>(entries.size() * 4 / 3 + 1);
+			for (Root entry : entries) {
+				childs.put(entry.getDescribe(), entry);
+			}
+			return Collections.unmodifiableMap(childs);
+		}
+
+		/** 读取条目的基本属性, 不跟随符号链接 **/
+		private static BasicFileAttributes attributes(DirectoryStream<Path> stream, Path entry) throws IOException {
+			if (stream instanceof SecureDirectoryStream) {
+				@SuppressWarnings("unchecked")
+				SecureDirectoryStream<Path> secure = (SecureDirectoryStream<Path>) stream;
+				return secure.getFileAttributeView(entry.getFileName(), BasicFileAttributeView.class, LinkOption.NOFOLLOW_LINKS).readAttributes();
+			}
+			return Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		}
+	}
+
+	/** 以path为根创建懒加载的构件树, 最多缓存maxFolders个目录 **/
+	public static Root open(Path path, int maxFolders) {
+		return new LazyFolder(path.toAbsolutePath().normalize(), new ChildCache(maxFolders));
+	}
+
+	public static void main(String[] args) throws IOException {
+		Path path = Paths.get(args.length > 0 ? args[0] : ".");
+		ChildCache cache = new ChildCache(1024);
+		Root root = new LazyFolder(path.toAbsolutePath().normalize(), cache);
+
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+		IterativeCompositeTraversal.list(root, out);
+		System.out.println("Aggregate = " + ForkJoinCompositeTraversal.aggregate(ForkJoinPool.commonPool(), root, r -> true));
+		System.out.println("Cached Folders = " + cache.size() + ", Skipped = " + cache.skipped() + (cache.lastSkipped() == null ? "" : ", Last Skipped = " + cache.lastSkipped() + " (" + cache.lastFailure() + ")"));
+	}
+}
@@ -0,0 +1,417 @@
+package adj.felix.java.patterns.ch02.structure.composite;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import adj.felix.java.patterns.ch02.structure.MemoryUsage;
+
+/**
+ * <pre>
+ * ~~~~ <b>组合模式之路径索引</b> ~~~~
+ * 在透明方式的基础上, 树枝构件按名称索引下级构件, 整棵树即为一棵以路径分段为键的字典树(Trie)。
+ * 01. 特点
+ *     (1) 下级构件保存在LinkedHashMap中, 按名称查找下级构件的时间复杂度为O(1), 遍历顺序即为添加顺序, 稳定可预期。
+ *     (2) 按路径查找(如"Program Files/Adobe Soft/Template.java")逐段下探, 时间复杂度为O(路径长度), 与树的规模无关。
+ *     (3) 同一树枝下不允许出现同名构件, add()遇到同名的其他构件时返回false。
+ *     (4) 树枝构件缓存子孙节点数及子树总大小, add()/remove()沿父链向上传播增量, 读取为O(1), 写入为O(深度)。
+ *         自上而下逐层构建深度为d的目录链需要O(d^2); 深层的链应自下而上构建: 先把下级挂到尚无上级的树枝, 再把该树枝挂到上级, 每次写入为O(1)。
+ *         非本类的树枝构件(如{@link NioCompositePattern.LazyFolder})按添加时遍历所得的快照计入, 移除时扣除同一快照。
+ *     (5) 一个树枝构件只能属于一个上级; add()拒绝已属于其他上级的树枝构件, 添加自身或上级时抛出IllegalArgumentException。
+ * 02. 与{@link TransparentCompositePattern}的区别
+ *     HashSet按对象标识散列, 只能逐个遍历比较名称; 此处以名称为键, 查找无需遍历。
+ * </pre>
+ * @author adolf.felix
+ */
+public class PathIndexCompositePattern {
+	/** 路径分隔符 **/
+	static final char SEPARATOR = '/';
+
+	/**
+	 * Component(抽象构件), 规定参加组合对象的接口。树叶构件的getChilds()返回null。
+	 */
+	interface Root {
+		/** 添加节点 **/
+		public boolean add(Root root);
+		/** 移除节点 **/
+		public boolean remove(Root root);
+		/** 按名称获取下一级子节点 **/
+		public Root getChild(String name);
+		/** 获取下一级子节点, 按添加顺序排列 **/
+		public Collection<Root> getChilds();
+
+		/** 描述(亦为节点名称) **/
+		public String getDescribe();
+		/** 大小(字节), 树枝构件自身大小为0 **/
+		public long getSize();
+	}
+
+	/**
+	 * Left(树叶构件)
+	 */
+	static class File implements Root {
+		private String describe;
+		private long size;
+
+		public File(String describe) {
+			this(describe, 0);
+		}
+
+		public File(String describe, long size) {
+			this.describe = describe;
+			this.size = size;
+		}
+
+		@Override
+		public boolean add(Root root) {
+			return false;
+		}
+
+		@Override
+		public boolean remove(Root root) {
+			return false;
+		}
+
+		@Override
+		public Root getChild(String name) {
+			return null;
+		}
+
+		@Override
+		public Collection<Root> getChilds() {
+			return null;
+		}
+
+		@Override
+		public String getDescribe() {
+			return describe;
+		}
+
+		@Override
+		public long getSize() {
+			return size;
+		}
+
+		@Override
+		public String toString() {
+			return describe;
+		}
+	}
+
+	/**
+	 * Composite(树枝构件), 下级构件以名称为键保存。
+	 */
+	static class Folder implements Root {
+		private String describe;
+		private Map<String, Root> childrens = new LinkedHashMap<String, Root>();
+		private Folder parent;
+		private long descendants; // 子孙节点数
+		private long totalSize; // 子树总大小
+		private Map<Root, long[]> snapshots; // 非本类的树枝构件添加时的{节点数, 总大小}, 按需创建
+
+		public Folder(String describe) {
+			this.describe = describe;
+		}
+
+		@Override
+		public boolean add(Root root) {
+			if (root == this) {
+				throw new IllegalArgumentException("Cannot add " + this + " to itself");
+			}
+			if (root instanceof Folder) {
+				Folder folder = (Folder) root;
+				if (folder.parent != null) {
+					return folder.parent == this && childrens.get(root.getDescribe()) == root;
+				}
+				// 上级必定含有下级构件, 空的树枝构件无需沿父链检查; 自下而上构建时当前树枝尚无上级, 检查为O(1)
+				if (!folder.childrens.isEmpty()) {
+					for (Folder ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+						if (ancestor == folder) {
+							throw new IllegalArgumentException("Cannot add " + folder + " under its descendant " + this);
+						}
+					}
+				}
+			}
+			Root exist = childrens.putIfAbsent(root.getDescribe(), root);
+			if (exist != null) {
+				return exist == root;
+			}
+
+			if (root instanceof Folder) {
+				((Folder) root).parent = this;
+			}
+			long[] weight = weight(root);
+			if (!(root instanceof Folder) && root.getChilds() != null) {
+				if (snapshots == null) {
+					snapshots = new IdentityHashMap<Root, long[]>();
+				}
+				snapshots.put(root, weight);
+			}
+			propagate(weight[0], weight[1]);
+			return true;
+		}
+
+		@Override
+		public boolean remove(Root root) {
+			if (!childrens.remove(root.getDescribe(), root)) {
+				return false;
+			}
+
+			if (root instanceof Folder) {
+				((Folder) root).parent = null;
+			}
+			long[] weight = snapshots == null ? null : snapshots.remove(root);
+			if (weight == null) {
+				weight = weight(root);
+			}
+			propagate(-weight[0], -weight[1]);
+			return true;
+		}
+
+		/**
+		 * 修改下级构件的名称, 保持原有顺序。
+		 * @return 改名成功, 或新名称与原名称相同时返回true; 构件不是当前树枝的下级、不支持改名或新名称已被占用时返回false
+		 */
+		public boolean rename(Root root, String name) {
+			if (childrens.get(root.getDescribe()) != root || !(root instanceof File || root instanceof Folder)) {
+				return false;
+			}
+			if (childrens.containsKey(name)) {
+				return childrens.get(name) == root;
+			}
+
+			Map<String, Root> renamed = new LinkedHashMap<String, Root>(childrens.size() * 4 / 3 + 1);
+			for (Map.Entry<String, Root> entry : childrens.entrySet()) {
+				renamed.put(entry.getValue() == root ? name : entry.getKey(), entry.getValue());
+			}
+			if (root instanceof File) {
+				((File) root).describe = name;
+			}
+			else {
+				((Folder) root).describe = name;
+			}
+			childrens = renamed;
+			return true;
+		}
+
+		/** 子孙节点数(不含自身) **/
+		public long getDescendantCount() {
+			return descendants;
+		}
+
+		/** 子树总大小 **/
+		public long getTotalSize() {
+			return totalSize;
+		}
+
+		public Folder getParent() {
+			return parent;
+		}
+
+		/** 沿父链向上累加增量 **/
+		private void propagate(long count, long size) {
+			for (Folder folder = this; folder != null; folder = folder.parent) {
+				folder.descendants += count;
+				folder.totalSize += size;
+			}
+		}
+
+		@Override
+		public Root getChild(String name) {
+			return childrens.get(name);
+		}
+
+		@Override
+		public Collection<Root> getChilds() {
+			return childrens.values();
+		}
+
+		@Override
+		public String getDescribe() {
+			return describe;
+		}
+
+		@Override
+		public long getSize() {
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return describe;
+		}
+	}
+
+	/** 构件所在子树的{节点数, 总大小} **/
+	static long[] weight(Root root) {
+		if (root instanceof Folder) {
+			Folder folder = (Folder) root;
+			return new long[] { folder.descendants + 1, folder.totalSize + folder.getSize() };
+		}
+		if (root.getChilds() == null) {
+			return new long[] { 1, root.getSize() };
+		}
+
+		long[] weight = new long[2];
+		IterativeCompositeTraversal.TreeCursor cursor = new IterativeCompositeTraversal.TreeCursor(root);
+		while (cursor.next()) {
+			weight[0]++;
+			weight[1] += cursor.node().getSize();
+		}
+		return weight;
+	}
+
+	/**
+	 * 一致性校验: 校验下级构件的键与名称及上级引用, 再重新计算每个树枝构件的子孙节点数及子树总大小, 与读取值比较。
+	 * @throws IllegalStateException 不一致时抛出
+	 */
+	public static void checkConsistency(Root root) {
+		List<Root> preorder = new ArrayList<Root>();
+		Map<Root, long[]> weights = new IdentityHashMap<Root, long[]>();
+		IterativeCompositeTraversal.TreeCursor cursor = new IterativeCompositeTraversal.TreeCursor(root);
+		while (cursor.next()) {
+			Root node = cursor.node();
+			if (weights.put(node, new long[] { 1, node.getSize() }) != null) {
+				throw new IllegalStateException("Node reachable twice: " + node);
+			}
+			preorder.add(node);
+			if (node.getChilds() == null) {
+				continue;
+			}
+			for (Root child : node.getChilds()) {
+				if (node.getChild(child.getDescribe()) != child) {
+					throw new IllegalStateException("Key mismatch: " + child + " under " + node);
+				}
+				if (node instanceof Folder && child instanceof Folder) {
+					if (((Folder) child).parent != node) {
+						throw new IllegalStateException("Parent mismatch: " + child + " under " + node);
+					}
+				}
+			}
+		}
+
+		// 逆先序处理, 下级总是先于上级完成计算
+		for (int i = preorder.size() - 1; i >= 0; i--) {
+			Root node = preorder.get(i);
+			long[] weight = weights.get(node);
+			if (node.getChilds() != null) {
+				for (Root child : node.getChilds()) {
+					long[] childWeight = weights.get(child);
+					weight[0] += childWeight[0];
+					weight[1] += childWeight[1];
+				}
+			}
+			if (node instanceof Folder) {
+				Folder folder = (Folder) node;
+				if (folder.descendants != weight[0] - 1 || folder.totalSize != weight[1] - folder.getSize()) {
+					throw new IllegalStateException("Aggregate mismatch at " + folder + ": cached {" + folder.descendants + ", " + folder.totalSize
+							+ "}, actual {" + (weight[0] - 1) + ", " + (weight[1] - folder.getSize()) + "}");
+				}
+			}
+		}
+	}
+
+	/**
+	 * 按相对路径查找构件, 连续或首尾的分隔符将被忽略。
+	 * @param root 起始构件
+	 * @param path 相对路径, 如"Program Files/Adobe Soft/Template.java"
+	 * @return 构件, 不存在时返回null
+	 */
+	public static Root find(Root root, String path) {
+		Root current = root;
+		int length = path.length();
+		int begin = 0;
+		while (current != null && begin < length) {
+			int end = path.indexOf(SEPARATOR, begin);
+			if (end < 0) {
+				end = length;
+			}
+			if (end > begin) {
+				current = current.getChild(path.substring(begin, end));
+			}
+			begin = end + 1;
+		}
+		return current;
+	}
+
+	public static void main(String[] args) {
+		Root c = new Folder("C:"); // C盘
+
+		// C盘下级目录
+		Root programFiles = new Folder("Program Files");
+		Root programFilesX86 = new Folder("Program Files(x86)");
+
+		// C盘下弟三级文件及目录
+		Root adobeSoft = new Folder("Adobe Soft");
+		Root templateFile = new File("Template.java", 1024);
+
+		c.add(programFiles);
+		programFiles.add(adobeSoft);
+		adobeSoft.add(templateFile);
+		c.add(programFilesX86);
+
+		System.out.println("Find = " + find(c, "Program Files/Adobe Soft/Template.java"));
+		System.out.println("Find = " + find(c, "Program Files/Missing/Template.java"));
+		System.out.println("C: Descendants = " + ((Folder) c).getDescendantCount() + ", TotalSize = " + ((Folder) c).getTotalSize());
+		programFiles.remove(adobeSoft);
+		checkConsistency(c);
+		System.out.println("C: Descendants = " + ((Folder) c).getDescendantCount() + ", TotalSize = " + ((Folder) c).getTotalSize());
+
+		// 写入代价: 在不同深度的目录链末端反复添加/移除文件, 以及每次写入后读取顶层聚合值; 目录链自下而上构建
+		for (int depth = 1; depth <= 100000; depth *= 10) {
+			Folder bottom = new Folder("d" + (depth - 1));
+			Folder top = bottom;
+			for (int i = depth - 2; i >= -1; i--) {
+				Folder parent = new Folder(i < 0 ? "top" : "d" + i);
+				parent.add(top);
+				top = parent;
+			}
+			Root file = new File("file", 1);
+			int rounds = 1000000 / depth + 100;
+			long begin = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				bottom.add(file);
+				bottom.remove(file);
+			}
+			long writeTime = System.nanoTime() - begin;
+			begin = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				bottom.add(file);
+				bottom.remove(file);
+				top.getTotalSize();
+			}
+			long readTime = System.nanoTime() - begin;
+			checkConsistency(top);
+			System.out.println("Depth = " + depth + ", Add+Remove = " + writeTime / rounds + " ns, Add+Remove+Read = " + readTime / rounds + " ns");
+		}
+
+		// 每个节点的内存占用: 构建宽度为16的树, 比较构建前后的堆使用量
+		int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		long before = MemoryUsage.usedMemory();
+		Root tree = generate(nodes, 16);
+		long after = MemoryUsage.usedMemory();
+		System.out.println("Nodes = " + nodes + ", Bytes/Node = " + (after - before) / nodes + ", Root = " + tree);
+	}
+
+	/** 按广度优先生成指定节点数的树, 每个树枝最多fanout个下级, 叶子层为文件 **/
+	static Root generate(int nodes, int fanout) {
+		Root[] queue = new Root[nodes];
+		queue[0] = new Folder("root");
+		int folders = (nodes - 1 + fanout - 1) / fanout; // 前folders个节点作为树枝
+		int head = 0;
+		int tail = 1;
+		while (tail < nodes) {
+			Root parent = queue[head++];
+			for (int i = 0; i < fanout && tail < nodes; i++) {
+				boolean leaf = tail >= folders;
+				Root child = leaf ? new File("f" + tail, tail) : new Folder("d" + tail);
+				parent.add(child);
+				queue[tail++] = child;
+			}
+		}
+		return queue[0];
+	}
+}
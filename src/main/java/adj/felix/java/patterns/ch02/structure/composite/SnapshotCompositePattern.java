@@ -0,0 +1,369 @@
+package adj.felix.java.patterns.ch02.structure.composite;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import adj.felix.java.patterns.ch02.structure.composite.PathIndexCompositePattern.Root;
+
+/**
+ * <pre>
+ * ~~~~ <b>组合模式之二进制快照</b> ~~~~
+ * 将构件树写成紧凑的二进制文件, 加载时以内存映射打开, 直接在映射区上遍历, 无需逐个节点反序列化, 加载耗时与树的规模无关。
+ * 01. 文件格式(小端序)
+ *     (1) 文件头, 32字节
+ *         magic(int, "DPCT") | version(int) | nodeCount(int) | reserved(int) | namesOffset(long) | namesLength(long)
+ *     (2) 节点表, 每个节点24字节, 按先序编号, 节点0为根
+ *         firstChild(int) | nextSibling(int) | nameOffset(int) | nameLength(int, 最高位为树枝标记) | size(long)
+ *     (3) 名称区, 所有名称的UTF-8字节
+ * 02. 版本
+ *     读取时校验magic与version, 只接受不高于SUPPORTED_VERSION的版本, 新增字段应提升版本号。
+ * 03. 限制
+ *     节点表与名称区分别映射, 各自不超过2GB, 即至多MAX_NODES(约八千九百万)个节点, 名称区至多MAX_NAMES_BYTES字节;
+ *     节点编号与名称偏移均为int, 按此上限计算的字节偏移不会溢出。write()遇到超出上限的树时抛出IllegalArgumentException, 不创建文件。
+ * </pre>
+ * @author adolf.felix
+ */
+public class SnapshotCompositePattern {
+	static final int MAGIC = 0x54435044; // "DPCT"
+	static final int VERSION = 1;
+	static final int SUPPORTED_VERSION = 1;
+	static final int HEADER_BYTES = 32;
+	static final int RECORD_BYTES = 24;
+	static final int FOLDER_FLAG = 0x80000000;
+	static final int NONE = -1;
+	static final int MAX_NODES = Integer.MAX_VALUE / RECORD_BYTES;
+	static final int MAX_NAMES_BYTES = Integer.MAX_VALUE;
+
+	/**
+	 * 将root所在的树写入快照文件
+	 * @return 节点数
+	 * @throws IllegalArgumentException 节点数超过MAX_NODES或名称总字节数超过MAX_NAMES_BYTES
+	 */
+	public static int write(Root root, Path path) throws IOException {
+		return write(root, path, MAX_NODES, MAX_NAMES_BYTES);
+	}
+
+	/** 按指定上限写入快照, 上限不得超过MAX_NODES及MAX_NAMES_BYTES **/
+	static int write(Root root, Path path, int maxNodes, int maxNamesBytes) throws IOException {
+		int[] firstChild = new int[1024];
+		int[] nextSibling = new int[1024];
+		int[] lastChild = new int[1024];
+		int[] nameOffset = new int[1024];
+		int[] nameLength = new int[1024];
+		long[] size = new long[1024];
+		byte[] names = new byte[8192];
+		int[] ancestors = new int[64];
+		int count = 0;
+		int namesLength = 0;
+
+		IterativeCompositeTraversal.TreeCursor cursor = new IterativeCompositeTraversal.TreeCursor(root);
+		while (cursor.next()) {
+			Root node = cursor.node();
+			int depth = cursor.depth();
+			if (count == maxNodes) {
+				throw new IllegalArgumentException("Too many nodes for a snapshot, limit is " + maxNodes + ": " + root);
+			}
+			if (count == firstChild.length) {
+				int length = (int) Math.min(count * 2L, maxNodes);
+				firstChild = Arrays.copyOf(firstChild, length);
+				nextSibling = Arrays.copyOf(nextSibling, length);
+				lastChild = Arrays.copyOf(lastChild, length);
+				nameOffset = Arrays.copyOf(nameOffset, length);
+				nameLength = Arrays.copyOf(nameLength, length);
+				size = Arrays.copyOf(size, length);
+			}
+			if (depth == ancestors.length) {
+				ancestors = Arrays.copyOf(ancestors, depth * 2);
+			}
+
+			byte[] bytes = node.getDescribe().getBytes(StandardCharsets.UTF_8);
+			if ((long) namesLength + bytes.length > maxNamesBytes) {
+				throw new IllegalArgumentException("Names exceed " + maxNamesBytes + " bytes for a snapshot: " + root);
+			}
+			if (namesLength + bytes.length > names.length) {
+				names = Arrays.copyOf(names, (int) Math.min(Math.max(names.length * 2L, namesLength + bytes.length), maxNamesBytes));
+			}
+			System.arraycopy(bytes, 0, names, namesLength, bytes.length);
+
+			int index = count++;
+			firstChild[index] = NONE;
+			nextSibling[index] = NONE;
+			lastChild[index] = NONE;
+			nameOffset[index] = namesLength;
+			nameLength[index] = bytes.length | (node.getChilds() == null ? 0 : FOLDER_FLAG);
+			size[index] = node.getSize();
+			namesLength += bytes.length;
+
+			// 先序遍历中, 深度为depth-1的最近节点即为上级
+			if (depth > 0) {
+				int parent = ancestors[depth - 1];
+				if (lastChild[parent] == NONE) {
+					firstChild[parent] = index;
+				}
+				else {
+					nextSibling[lastChild[parent]] = index;
+				}
+				lastChild[parent] = index;
+			}
+			ancestors[depth] = index;
+		}
+
+		long namesOffset = HEADER_BYTES + (long) count * RECORD_BYTES;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0).putLong(namesOffset).putLong(namesLength);
+			for (int i = 0; i < count; i++) {
+				if (buffer.remaining() < RECORD_BYTES) {
+					drain(channel, buffer);
+				}
+				buffer.putInt(firstChild[i]).putInt(nextSibling[i]).putInt(nameOffset[i]).putInt(nameLength[i]).putLong(size[i]);
+			}
+			drain(channel, buffer);
+			channel.write(ByteBuffer.wrap(names, 0, namesLength));
+		}
+		return count;
+	}
+
+	private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/** 内存映射的快照 **/
+	static class Snapshot {
+		private final int count;
+		private final ByteBuffer nodes;
+		private final ByteBuffer names;
+
+		private Snapshot(int count, ByteBuffer nodes, ByteBuffer names) {
+			this.count = count;
+			this.nodes = nodes;
+			this.names = names;
+		}
+
+		/** 映射快照文件, 只读取文件头 **/
+		public static Snapshot open(Path path) throws IOException {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				long fileLength = channel.size();
+				if (fileLength < HEADER_BYTES) {
+					throw new IOException("Not a snapshot: " + path);
+				}
+				MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+				header.order(ByteOrder.LITTLE_ENDIAN);
+				if (header.getInt(0) != MAGIC) {
+					throw new IOException("Not a snapshot: " + path);
+				}
+				int version = header.getInt(4);
+				if (version < 1 || version > SUPPORTED_VERSION) {
+					throw new IOException("Unsupported snapshot version " + version + ": " + path);
+				}
+				int count = header.getInt(8);
+				long namesOffset = header.getLong(16);
+				long namesLength = header.getLong(24);
+				if (count <= 0 || count > MAX_NODES || namesLength > MAX_NAMES_BYTES || namesOffset != HEADER_BYTES + (long) count * RECORD_BYTES || namesOffset + namesLength != fileLength) {
+					throw new IOException("Corrupted snapshot: " + path);
+				}
+
+				ByteBuffer nodes = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, namesOffset - HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+				ByteBuffer names = channel.map(FileChannel.MapMode.READ_ONLY, namesOffset, namesLength);
+				return new Snapshot(count, nodes, names);
+			}
+		}
+
+		public int count() {
+			return count;
+		}
+
+		public Root root() {
+			return new SnapshotView(this, 0);
+		}
+
+		int firstChild(int node) {
+			return nodes.getInt(node * RECORD_BYTES);
+		}
+
+		int nextSibling(int node) {
+			return nodes.getInt(node * RECORD_BYTES + 4);
+		}
+
+		boolean isFolder(int node) {
+			return (nodes.getInt(node * RECORD_BYTES + 12) & FOLDER_FLAG) != 0;
+		}
+
+		long size(int node) {
+			return nodes.getLong(node * RECORD_BYTES + 16);
+		}
+
+		String name(int node) {
+			int offset = nodes.getInt(node * RECORD_BYTES + 8);
+			int length = nodes.getInt(node * RECORD_BYTES + 12) & ~FOLDER_FLAG;
+			byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++) {
+				bytes[i] = names.get(offset + i);
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		/** 按名称查找下级节点, 在映射区上逐字节比较 **/
+		int child(int node, String name) {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			for (int child = firstChild(node); child != NONE; child = nextSibling(child)) {
+				int offset = nodes.getInt(child * RECORD_BYTES + 8);
+				int length = nodes.getInt(child * RECORD_BYTES + 12) & ~FOLDER_FLAG;
+				if (length != bytes.length) {
+					continue;
+				}
+				int i = 0;
+				while (i < length && names.get(offset + i) == bytes[i]) {
+					i++;
+				}
+				if (i == length) {
+					return child;
+				}
+			}
+			return NONE;
+		}
+	}
+
+	/** 快照节点视图, 只读 **/
+	static class SnapshotView implements Root {
+		private final Snapshot snapshot;
+		private final int node;
+
+		public SnapshotView(Snapshot snapshot, int node) {
+			this.snapshot = snapshot;
+			this.node = node;
+		}
+
+		@Override
+		public boolean add(Root root) {
+			return false;
+		}
+
+		@Override
+		public boolean remove(Root root) {
+			return false;
+		}
+
+		@Override
+		public Root getChild(String name) {
+			if (!snapshot.isFolder(node)) {
+				return null;
+			}
+			int child = snapshot.child(node, name);
+			return child == NONE ? null : new SnapshotView(snapshot, child);
+		}
+
+		@Override
+		public Collection<Root> getChilds() {
+			if (!snapshot.isFolder(node)) {
+				return null;
+			}
+			return new AbstractCollection<Root>() {
+				@Override
+				public Iterator<Root> iterator() {
+					return new Iterator<Root>() {
+						private int next = snapshot.firstChild(node);
+
+						@Override
+						public boolean hasNext() {
+							return next != NONE;
+						}
+
+						@Override
+						public Root next() {
+							if (next == NONE) {
+								throw new NoSuchElementException();
+							}
+							Root view = new SnapshotView(snapshot, next);
+							next = snapshot.nextSibling(next);
+							return view;
+						}
+					};
+				}
+
+				@Override
+				public boolean isEmpty() {
+					return snapshot.firstChild(node) == NONE;
+				}
+
+				@Override
+				public int size() {
+					int size = 0;
+					for (int child = snapshot.firstChild(node); child != NONE; child = snapshot.nextSibling(child)) {
+						size++;
+					}
+					return size;
+				}
+			};
+		}
+
+		@Override
+		public String getDescribe() {
+			return snapshot.name(node);
+		}
+
+		@Override
+		public long getSize() {
+			return snapshot.size(node);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof SnapshotView && ((SnapshotView) obj).snapshot == snapshot && ((SnapshotView) obj).node == node;
+		}
+
+		@Override
+		public int hashCode() {
+			return node;
+		}
+
+		@Override
+		public String toString() {
+			return getDescribe();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		Root tree = PathIndexCompositePattern.generate(nodes, 16);
+		Path path = Files.createTempFile("composite", ".snapshot");
+		path.toFile().deleteOnExit();
+
+		long begin = System.nanoTime();
+		write(tree, path);
+		System.out.println("Write = " + (System.nanoTime() - begin) / 1000000 + " ms, Bytes = " + Files.size(path));
+
+		begin = System.nanoTime();
+		Snapshot snapshot = Snapshot.open(path);
+		System.out.println("Open = " + (System.nanoTime() - begin) / 1000 + " us, Nodes = " + snapshot.count());
+
+		begin = System.nanoTime();
+		Root root = snapshot.root();
+		System.out.println("Find = " + PathIndexCompositePattern.find(root, "d1/d17") + ", Time = " + (System.nanoTime() - begin) / 1000 + " us");
+
+		begin = System.nanoTime();
+		long total = 0;
+		IterativeCompositeTraversal.TreeCursor cursor = new IterativeCompositeTraversal.TreeCursor(root);
+		while (cursor.next()) {
+			total += cursor.node().getSize();
+		}
+		long expect = ((PathIndexCompositePattern.Folder) tree).getTotalSize();
+		System.out.println("Traverse = " + (System.nanoTime() - begin) / 1000000 + " ms, TotalSize = " + total + ", Expect = " + expect);
+	}
+}
@@ -0,0 +1,115 @@
+package adj.felix.java.patterns.ch02.structure.decorator;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.Coffee;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.DecoratorDrinking;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.IDrinking;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.MilkToDrinking;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.SugarToDrinking;
+
+/**
+ * <pre>
+ * ~~~~ <b>装饰模式之编译装饰链</b> ~~~~
+ * 装饰链每次调用price()/describe()都要逐层转发, describe()还会新建HashMap并逐层拼接"addition"字符串, 代价随层数线性增长。
+ * 装饰完成后, 将整条装饰链"编译"为扁平的结果:
+ *     (1) 编译时沿装饰链求值一次, 保存价格及描述。
+ *     (2) 此后price()及describe()直接返回保存的结果, 不再逐层转发及拼接字符串, 耗时与装饰层数无关, 也不分配对象。
+ * describe()返回只读视图; 编译结果仍可以被继续装饰, 需要修改描述的装饰者经{@link DecoratorDrinking#writableDescribe()}复制一份后再修改。
+ * </pre>
+ * @author adolf.felix
+ */
+public class CompiledDecoratorPattern {
+	/** 编译后的装饰链 **/
+	static final class CompiledDrinking implements IDrinking {
+		private final double price;
+		private final long priceCents;
+		private final Map<String, Object> describe;
+		private final int depth;
+
+		private CompiledDrinking(IDrinking drinking) {
+			this.price = drinking.price();
+			this.priceCents = drinking.priceCents();
+			this.describe = Collections.unmodifiableMap(new HashMap<String, Object>(drinking.describe()));
+
+			int depth = 0;
+			for (IDrinking layer = drinking; layer instanceof DecoratorDrinking; layer = ((DecoratorDrinking) layer).drinking) {
+				depth++;
+			}
+			this.depth = depth;
+		}
+
+		@Override
+		public double price() {
+			return price;
+		}
+
+		@Override
+		public long priceCents() {
+			return priceCents;
+		}
+
+		@Override
+		public Map<String, Object> describe() {
+			return describe;
+		}
+
+		/** 被编译的装饰层数 **/
+		public int depth() {
+			return depth;
+		}
+	}
+
+	/** 编译装饰链 **/
+	public static CompiledDrinking compile(IDrinking drinking) {
+		if (drinking instanceof CompiledDrinking) {
+			return (CompiledDrinking) drinking;
+		}
+		return new CompiledDrinking(drinking);
+	}
+
+	/** 以糖、奶交替装饰depth层 **/
+	static IDrinking decorate(IDrinking drinking, int depth) {
+		for (int i = 0; i < depth; i++) {
+			drinking = i % 2 == 0 ? new SugarToDrinking(drinking) : new MilkToDrinking(drinking);
+		}
+		return drinking;
+	}
+
+	public static void main(String[] args) {
+		IDrinking milkCoffee = new MilkToDrinking(new SugarToDrinking(new Coffee("Latte", 20)));
+		CompiledDrinking compiled = compile(milkCoffee);
+		System.out.println(compiled.describe());
+		System.out.println("Total = " + compiled.price() + ", Depth = " + compiled.depth());
+		IDrinking moreSugar = new SugarToDrinking(compiled);
+		System.out.println(moreSugar.describe() + ", Total = " + moreSugar.price() + ", Compiled = " + compiled.describe());
+
+		// 不同装饰层数下, 每次price()+describe()的耗时
+		for (int depth = 1; depth <= 256; depth *= 4) {
+			IDrinking drinking = decorate(new Coffee("Latte", 20), depth);
+			IDrinking plan = compile(drinking);
+			int rounds = 2000000 / depth;
+			System.out.printf("Depth = %3d, Decorated = %8.1f ns, Compiled = %5.1f ns%n", depth, measure(drinking, rounds), measure(plan, rounds * 10));
+		}
+	}
+
+	private static double measure(IDrinking drinking, int rounds) {
+		double sink = 0;
+		for (int warmup = 0; warmup < 2; warmup++) {
+			for (int i = 0; i < rounds; i++) {
+				sink += drinking.price() + drinking.describe().size();
+			}
+		}
+		long begin = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			sink += drinking.price() + drinking.describe().size();
+		}
+		double elapsed = (double) (System.nanoTime() - begin) / rounds;
+		if (sink == 0) {
+			System.out.println();
+		}
+		return elapsed;
+	}
+}
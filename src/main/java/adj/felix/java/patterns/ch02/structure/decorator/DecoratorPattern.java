@@ -39,15 +39,22 @@ public class DecoratorPattern {
 	interface IDrinking {
 		public double price();
 		public Map<String, Object> describe();
+		
+		/** 以分为单位的精确价格, 用于大量订单累加, 避免浮点误差 **/
+		public default long priceCents() {
+			return Math.round(price() * 100);
+		}
 	}
 	
 	static class Coffee implements IDrinking {
 		private String name;
 		private double price;
+		private long priceCents;
 		
 		public Coffee(String name, double price) {
 			this.name = name;
 			this.price = price;
+			this.priceCents = Math.round(price * 100);
 		}
 		
 		@Override
@@ -55,6 +62,11 @@ public class DecoratorPattern {
 			return price;
 		}
 		
+		@Override
+		public long priceCents() {
+			return priceCents;
+		}
+		
 		@Override
 		public Map<String, Object> describe () {
 			Map<String, Object> describe = new HashMap<String, Object>();
@@ -77,10 +89,21 @@ public class DecoratorPattern {
 			return drinking.price();
 		}
 		
+		@Override
+		public long priceCents() {
+			return drinking.priceCents();
+		}
+		
 		@Override
 		public Map<String, Object> describe() {
 			return drinking.describe();
 		}
+		
+		/** 供需要修改描述的装饰者使用: 被装饰者返回只读的描述(如编译后的装饰链)时复制一份, 否则直接修改 **/
+		protected Map<String, Object> writableDescribe() {
+			Map<String, Object> describe = drinking.describe();
+			return describe instanceof HashMap ? describe : new HashMap<String, Object>(describe);
+		}
 	}
 	
 	static class SugarToDrinking extends DecoratorDrinking {
@@ -93,9 +116,14 @@ public class DecoratorPattern {
 			return 1 + super.price();
 		}
 		
+		@Override
+		public long priceCents() {
+			return 100 + super.priceCents();
+		}
+		
 		@Override
 		public Map<String, Object> describe() {
-			Map<String, Object> describe = super.describe();
+			Map<String, Object> describe = writableDescribe();
 			Object addition = describe.get("addition") == null ? "Sugger" : describe.get("addition") + " + Sugger";
 			describe.put("addition", addition);
 			
@@ -113,9 +141,14 @@ public class DecoratorPattern {
 			return 3 + super.price();
 		}
 		
+		@Override
+		public long priceCents() {
+			return 300 + super.priceCents();
+		}
+		
 		@Override
 		public Map<String, Object> describe() {
-			Map<String, Object> describe = super.describe();
+			Map<String, Object> describe = writableDescribe();
 			Object addition = describe.get("addition") == null ? "Milk" : describe.get("addition") + " + Milk";
 			describe.put("addition", addition);
 			
@@ -0,0 +1,100 @@
+package adj.felix.java.patterns.ch02.structure.decorator;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.Coffee;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.IDrinking;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.MilkToDrinking;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.SugarToDrinking;
+
+/**
+ * <pre>
+ * ~~~~ <b>装饰模式之定点数计价</b> ~~~~
+ * 以long表示的"分"为单位计价({@link IDrinking#priceCents()}), 累加结果精确, 且只涉及基本类型运算。
+ * 01. 批量接口
+ *     (1) priceCents(orders, out): 一次遍历计算每个订单的价格。
+ *     (2) totalCents(orders, quantities): 一次遍历计算所有订单行的总价。
+ * 02. 对比
+ *     double累加会产生舍入误差, BigDecimal精确但每次运算都分配对象, long分既精确又没有分配。
+ *     long分可表示约九千万亿元, 订单总额不会溢出。
+ * </pre>
+ * @author adolf.felix
+ */
+public class FixedPointPricing {
+	/** 逐个计算订单价格(分), 写入out **/
+	public static void priceCents(IDrinking[] orders, long[] out) {
+		for (int i = 0; i < orders.length; i++) {
+			out[i] = orders[i].priceCents();
+		}
+	}
+
+	/** 计算所有订单行的总价(分), quantities[i]为orders[i]的数量 **/
+	public static long totalCents(IDrinking[] orders, int[] quantities) {
+		long total = 0;
+		for (int i = 0; i < orders.length; i++) {
+			total += orders[i].priceCents() * quantities[i];
+		}
+		return total;
+	}
+
+	/** 以double累加总价 **/
+	static double totalDouble(IDrinking[] orders, int[] quantities) {
+		double total = 0;
+		for (int i = 0; i < orders.length; i++) {
+			total += orders[i].price() * quantities[i];
+		}
+		return total;
+	}
+
+	/** 以BigDecimal累加总价 **/
+	static BigDecimal totalBigDecimal(IDrinking[] orders, int[] quantities) {
+		BigDecimal total = BigDecimal.ZERO;
+		for (int i = 0; i < orders.length; i++) {
+			total = total.add(BigDecimal.valueOf(orders[i].price()).multiply(BigDecimal.valueOf(quantities[i])));
+		}
+		return total;
+	}
+
+	/** 以long分格式化为元 **/
+	static String format(long cents) {
+		return (cents < 0 ? "-" : "") + Math.abs(cents / 100) + "." + String.format("%02d", Math.abs(cents % 100));
+	}
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+
+		// 编译后的饮品作为订单项, 排除装饰链本身的转发开销
+		IDrinking[] menu = {
+				CompiledDecoratorPattern.compile(new Coffee("Latte", 20.10)),
+				CompiledDecoratorPattern.compile(new SugarToDrinking(new Coffee("Mocha", 18.30))),
+				CompiledDecoratorPattern.compile(new MilkToDrinking(new SugarToDrinking(new Coffee("Espresso", 12.70)))),
+		};
+		Random random = new Random(7);
+		IDrinking[] orders = new IDrinking[count];
+		int[] quantities = new int[count];
+		for (int i = 0; i < count; i++) {
+			orders[i] = menu[random.nextInt(menu.length)];
+			quantities[i] = 1 + random.nextInt(3);
+		}
+
+		for (int round = 0; round < 5; round++) {
+			long begin = System.nanoTime();
+			double doubleTotal = totalDouble(orders, quantities);
+			long doubleTime = System.nanoTime() - begin;
+
+			begin = System.nanoTime();
+			BigDecimal decimalTotal = totalBigDecimal(orders, quantities);
+			long decimalTime = System.nanoTime() - begin;
+
+			begin = System.nanoTime();
+			long centsTotal = totalCents(orders, quantities);
+			long centsTime = System.nanoTime() - begin;
+
+			System.out.printf("double = %.2f ms (%s), BigDecimal = %.2f ms (%s), long = %.2f ms (%s)%n",
+					doubleTime / 1e6, BigDecimal.valueOf(doubleTotal).toPlainString(),
+					decimalTime / 1e6, decimalTotal.toPlainString(),
+					centsTime / 1e6, format(centsTotal));
+		}
+	}
+}
@@ -0,0 +1,304 @@
+package adj.felix.java.patterns.ch02.structure.decorator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.Coffee;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.DecoratorDrinking;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.IDrinking;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.MilkToDrinking;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.SugarToDrinking;
+
+/**
+ * <pre>
+ * ~~~~ <b>装饰模式之计价程序</b> ~~~~
+ * 装饰链中drinking.price()的调用点会遇到多种装饰者类型, 超过两种时JIT不再内联(megamorphic), 每层都是一次虚调用。
+ * 计价程序以基本类型数组表示装饰链: 每层装饰是一条指令(操作码 + 操作数), 在一个循环中解释执行, 调用点只有一处, 与装饰者类型的组合无关。
+ * 01. 指令
+ *     (1) ADD: 加价, 操作数为分(priceCents)及元(price)。
+ *     (2) PERCENT: 按比例调整, 操作数为万分比, 如9000表示九折。
+ * 02. 编译
+ *     compile()从内到外遍历装饰链, 实现PricedDecorator的装饰者直接给出指令; 其他装饰者按"本层价格 - 下层价格"(分)折算为ADD指令, 即假定其为按分加价的装饰。
+ *     describe()返回编译时保存的只读描述, 计价程序仍可以被继续装饰, 需要修改描述的装饰者经{@link DecoratorDrinking#writableDescribe()}复制后再修改。
+ * 03. 基准
+ *     main()按装饰层数及装饰者类型数统计装饰链与计价程序的单次计价耗时。
+ *     所有组合在同一JVM中依次执行, 类型数较多的组合会污染调用点的类型统计, 这正是实际系统中遇到的情况。
+ * </pre>
+ * @author adolf.felix
+ */
+public class PricingProgramPattern {
+	static final byte ADD = 0;
+	static final byte PERCENT = 1;
+
+	/** 能够以一条计价指令描述自身的装饰者 **/
+	interface PricedDecorator {
+		public byte opcode();
+		public long operandCents();
+		public double operand();
+	}
+
+	/** 计价程序 **/
+	static final class PricingProgram implements IDrinking {
+		private final long baseCents;
+		private final double base;
+		private final byte[] opcodes;
+		private final long[] operandCents;
+		private final double[] operands;
+		private final Map<String, Object> describe;
+
+		private PricingProgram(long baseCents, double base, byte[] opcodes, long[] operandCents, double[] operands, Map<String, Object> describe) {
+			this.baseCents = baseCents;
+			this.base = base;
+			this.opcodes = opcodes;
+			this.operandCents = operandCents;
+			this.operands = operands;
+			this.describe = describe;
+		}
+
+		@Override
+		public long priceCents() {
+			long price = baseCents;
+			for (int i = 0; i < opcodes.length; i++) {
+				if (opcodes[i] == ADD) {
+					price += operandCents[i];
+				}
+				else {
+					price = price * operandCents[i] / 10000;
+				}
+			}
+			return price;
+		}
+
+		@Override
+		public double price() {
+			double price = base;
+			for (int i = 0; i < opcodes.length; i++) {
+				if (opcodes[i] == ADD) {
+					price = operands[i] + price;
+				}
+				else {
+					price = price * operands[i] / 10000;
+				}
+			}
+			return price;
+		}
+
+		@Override
+		public Map<String, Object> describe() {
+			return describe;
+		}
+
+		public int length() {
+			return opcodes.length;
+		}
+	}
+
+	/** 将装饰链编译为计价程序 **/
+	public static PricingProgram compile(IDrinking drinking) {
+		List<IDrinking> layers = new ArrayList<IDrinking>();
+		IDrinking inner = drinking;
+		while (inner instanceof DecoratorDrinking) {
+			layers.add(inner);
+			inner = ((DecoratorDrinking) inner).drinking;
+		}
+		Collections.reverse(layers);
+
+		int length = layers.size();
+		byte[] opcodes = new byte[length];
+		long[] operandCents = new long[length];
+		double[] operands = new double[length];
+		for (int i = 0; i < length; i++) {
+			IDrinking layer = layers.get(i);
+			if (layer instanceof PricedDecorator) {
+				PricedDecorator priced = (PricedDecorator) layer;
+				opcodes[i] = priced.opcode();
+				operandCents[i] = priced.operandCents();
+				operands[i] = priced.operand();
+			}
+			else {
+				IDrinking below = ((DecoratorDrinking) layer).drinking;
+				opcodes[i] = ADD;
+				operandCents[i] = layer.priceCents() - below.priceCents();
+				operands[i] = operandCents[i] / 100.0;
+			}
+		}
+
+		Map<String, Object> describe = Collections.unmodifiableMap(new HashMap<String, Object>(drinking.describe()));
+		return new PricingProgram(inner.priceCents(), inner.price(), opcodes, operandCents, operands, describe);
+	}
+
+	/** 加价装饰者 **/
+	static class AddToDrinking extends DecoratorDrinking implements PricedDecorator {
+		private final String addition;
+		private final double price;
+		private final long priceCents;
+
+		public AddToDrinking(IDrinking drinking, String addition, double price) {
+			super(drinking);
+			this.addition = addition;
+			this.price = price;
+			this.priceCents = Math.round(price * 100);
+		}
+
+		@Override
+		public double price() {
+			return price + super.price();
+		}
+
+		@Override
+		public long priceCents() {
+			return priceCents + super.priceCents();
+		}
+
+		@Override
+		public Map<String, Object> describe() {
+			Map<String, Object> describe = writableDescribe();
+			Object addition = describe.get("addition") == null ? this.addition : describe.get("addition") + " + " + this.addition;
+			describe.put("addition", addition);
+			return describe;
+		}
+
+		@Override
+		public byte opcode() {
+			return ADD;
+		}
+
+		@Override
+		public long operandCents() {
+			return priceCents;
+		}
+
+		@Override
+		public double operand() {
+			return price;
+		}
+	}
+
+	static class CreamToDrinking extends AddToDrinking {
+		public CreamToDrinking(IDrinking drinking) {
+			super(drinking, "Cream", 2);
+		}
+	}
+
+	static class SyrupToDrinking extends AddToDrinking {
+		public SyrupToDrinking(IDrinking drinking) {
+			super(drinking, "Syrup", 1.5);
+		}
+	}
+
+	static class IceToDrinking extends AddToDrinking {
+		public IceToDrinking(IDrinking drinking) {
+			super(drinking, "Ice", 0.5);
+		}
+	}
+
+	/** 折扣装饰者, 万分比 **/
+	static class DiscountDrinking extends DecoratorDrinking implements PricedDecorator {
+		private final long basisPoints;
+
+		public DiscountDrinking(IDrinking drinking, long basisPoints) {
+			super(drinking);
+			this.basisPoints = basisPoints;
+		}
+
+		@Override
+		public double price() {
+			return super.price() * basisPoints / 10000;
+		}
+
+		@Override
+		public long priceCents() {
+			return super.priceCents() * basisPoints / 10000;
+		}
+
+		@Override
+		public byte opcode() {
+			return PERCENT;
+		}
+
+		@Override
+		public long operandCents() {
+			return basisPoints;
+		}
+
+		@Override
+		public double operand() {
+			return basisPoints;
+		}
+	}
+
+	/** 按类型编号创建装饰者 **/
+	static IDrinking decorate(IDrinking drinking, int type) {
+		switch (type) {
+		case 0:
+			return new SugarToDrinking(drinking);
+		case 1:
+			return new MilkToDrinking(drinking);
+		case 2:
+			return new CreamToDrinking(drinking);
+		case 3:
+			return new SyrupToDrinking(drinking);
+		case 4:
+			return new IceToDrinking(drinking);
+		default:
+			return new DiscountDrinking(drinking, 9500);
+		}
+	}
+
+	public static void main(String[] args) {
+		IDrinking drinking = new DiscountDrinking(new CreamToDrinking(new MilkToDrinking(new SugarToDrinking(new Coffee("Latte", 20)))), 9000);
+		PricingProgram program = compile(drinking);
+		System.out.println(program.describe() + ", Instructions = " + program.length());
+		System.out.println("Decorated = " + drinking.price() + " / " + drinking.priceCents() + ", Program = " + program.price() + " / " + program.priceCents());
+
+		int chains = 512;
+		Random random = new Random(7);
+		int[] depths = { 1, 2, 4, 8, 16, 32 };
+		int[] kinds = { 1, 2, 3, 4, 6 };
+		for (int types : kinds) {
+			for (int depth : depths) {
+				IDrinking[] decorated = new IDrinking[chains];
+				IDrinking[] programs = new IDrinking[chains];
+				for (int i = 0; i < chains; i++) {
+					IDrinking chain = new Coffee("Latte", 20);
+					for (int j = 0; j < depth; j++) {
+						chain = decorate(chain, random.nextInt(types));
+					}
+					decorated[i] = chain;
+					programs[i] = compile(chain);
+					if (chain.priceCents() != programs[i].priceCents() || chain.price() != programs[i].price()) {
+						throw new IllegalStateException("Mismatch: " + chain.price() + " != " + programs[i].price());
+					}
+				}
+				System.out.printf("Types = %d, Depth = %2d, Decorated = %7.1f ns, Program = %6.1f ns%n", types, depth, measure(decorated), measure(programs));
+			}
+		}
+	}
+
+	/** 每次priceCents()的平均耗时 **/
+	private static double measure(IDrinking[] drinkings) {
+		int rounds = 2000;
+		long sink = 0;
+		for (int i = 0; i < rounds; i++) {
+			for (IDrinking drinking : drinkings) {
+				sink += drinking.priceCents();
+			}
+		}
+		long begin = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			for (IDrinking drinking : drinkings) {
+				sink += drinking.priceCents();
+			}
+		}
+		double elapsed = (double) (System.nanoTime() - begin) / rounds / drinkings.length;
+		if (sink == 0) {
+			System.out.println(Arrays.toString(drinkings));
+		}
+		return elapsed;
+	}
+}
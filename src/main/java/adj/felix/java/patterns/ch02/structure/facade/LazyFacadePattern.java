@@ -0,0 +1,222 @@
+package adj.felix.java.patterns.ch02.structure.facade;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import adj.felix.java.patterns.ch02.structure.MemoryUsage;
+
+/**
+ * <pre>
+ * ~~~~ <b>外观模式之按需激活</b> ~~~~
+ * {@link FacadePattern.Computer}在构造时创建并启动全部子系统, 即使某个操作只用到其中一个。
+ * 按需激活的门面中, 子系统在首次使用时才创建并启动, 空闲超过一定时间后自动关闭, 再次使用时重新激活。
+ * 01. 并发
+ *     (1) 快速路径: 计数器自增、读取volatile引用、计数器自减, 不加锁。
+ *     (2) 激活与回收在子系统上同步。回收时先置空引用, 再复查使用计数, 计数不为0则恢复引用, 保证不会关闭正在使用的子系统。
+ * </pre>
+ * @author adolf.felix
+ */
+public class LazyFacadePattern {
+	/** 按需激活的子系统 **/
+	static class LazySubsystem<T> {
+		private final String name;
+		private final Supplier<T> factory;
+		private final Consumer<T> starter;
+		private final Consumer<T> stopper;
+		private final long idleNanos;
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private volatile T instance;
+		private volatile long lastUsed;
+		private int activations;
+
+		public LazySubsystem(String name, Supplier<T> factory, Consumer<T> starter, Consumer<T> stopper, long idleMillis) {
+			this.name = name;
+			this.factory = factory;
+			this.starter = starter;
+			this.stopper = stopper;
+			this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+		}
+
+		/** 使用子系统, 未激活时先激活 **/
+		public <R> R use(Function<T, R> action) {
+			inFlight.incrementAndGet();
+			try {
+				T current = instance;
+				if (current == null) {
+					current = activate();
+				}
+				return action.apply(current);
+			} finally {
+				lastUsed = System.nanoTime();
+				inFlight.decrementAndGet();
+			}
+		}
+
+		private synchronized T activate() {
+			T current = instance;
+			if (current == null) {
+				current = factory.get();
+				starter.accept(current);
+				activations++;
+				instance = current;
+			}
+			return current;
+		}
+
+		/** 空闲超时且无人使用时关闭子系统 **/
+		synchronized boolean deactivateIfIdle(long now) {
+			T current = instance;
+			if (current == null || inFlight.get() != 0 || now - lastUsed < idleNanos) {
+				return false;
+			}
+			instance = null;
+			if (inFlight.get() != 0) {
+				instance = current;
+				return false;
+			}
+			stopper.accept(current);
+			return true;
+		}
+
+		/** 立即关闭子系统 **/
+		synchronized void deactivate() {
+			T current = instance;
+			if (current != null) {
+				instance = null;
+				stopper.accept(current);
+			}
+		}
+
+		public boolean active() {
+			return instance != null;
+		}
+
+		public synchronized int activations() {
+			return activations;
+		}
+
+		@Override
+		public String toString() {
+			return name + (active() ? "(active)" : "(inactive)");
+		}
+	}
+
+	/** 门面类, 子系统按需激活 **/
+	static class LazyComputer {
+		private final LazySubsystem<FacadePattern.CPU> cpu;
+		private final LazySubsystem<FacadePattern.Memory> memory;
+		private final LazySubsystem<FacadePattern.Disk> disk;
+		private final ScheduledExecutorService reaper;
+
+		public LazyComputer(long idleMillis) {
+			cpu = new LazySubsystem<FacadePattern.CPU>("CPU", FacadePattern.CPU::new, FacadePattern.CPU::start, FacadePattern.CPU::shutDown, idleMillis);
+			memory = new LazySubsystem<FacadePattern.Memory>("Memory", FacadePattern.Memory::new, FacadePattern.Memory::start, FacadePattern.Memory::shutDown, idleMillis);
+			disk = new LazySubsystem<FacadePattern.Disk>("Disk", FacadePattern.Disk::new, FacadePattern.Disk::start, FacadePattern.Disk::shutDown, idleMillis);
+
+			reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "facade-reaper");
+				thread.setDaemon(true);
+				return thread;
+			});
+			long period = Math.max(1, idleMillis / 2);
+			reaper.scheduleWithFixedDelay(() -> {
+				long now = System.nanoTime();
+				cpu.deactivateIfIdle(now);
+				memory.deactivateIfIdle(now);
+				disk.deactivateIfIdle(now);
+			}, period, period, TimeUnit.MILLISECONDS);
+		}
+
+		/** 计算, 只用到CPU和内存 **/
+		public void compute(String task) {
+			cpu.use(c -> memory.use(m -> {
+				System.out.println("Computing " + task);
+				return null;
+			}));
+		}
+
+		/** 读盘, 只用到磁盘 **/
+		public void read(String file) {
+			disk.use(d -> {
+				System.out.println("Reading " + file);
+				return null;
+			});
+		}
+
+		public void shutDown() {
+			reaper.shutdownNow();
+			cpu.deactivate();
+			memory.deactivate();
+			disk.deactivate();
+		}
+
+		@Override
+		public String toString() {
+			return "Computer " + cpu + " " + memory + " " + disk;
+		}
+	}
+
+	/** 模拟启动耗时及常驻内存的子系统 **/
+	static class HeavySubsystem {
+		private byte[] buffer;
+
+		public HeavySubsystem(long startMillis, int bytes) {
+			sleep(startMillis);
+			buffer = new byte[bytes];
+		}
+
+		public int size() {
+			return buffer.length;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		LazyComputer computer = new LazyComputer(200);
+		System.out.println(computer);
+		computer.read("ReadMe.txt");
+		System.out.println(computer);
+		computer.compute("1 + 1");
+		System.out.println(computer);
+		Thread.sleep(500);
+		System.out.println(computer);
+		computer.read("ReadMe.txt");
+		System.out.println("Disk activations = " + computer.disk.activations());
+		computer.shutDown();
+
+		// 与一次性启动全部子系统相比: 只用到其中一个子系统时的启动耗时及内存
+		long before = MemoryUsage.usedMemory();
+		long begin = System.nanoTime();
+		HeavySubsystem[] eager = { new HeavySubsystem(100, 32 << 20), new HeavySubsystem(100, 32 << 20), new HeavySubsystem(100, 32 << 20) };
+		int eagerSize = eager[0].size();
+		long eagerTime = System.nanoTime() - begin;
+		long eagerBytes = MemoryUsage.usedMemory() - before;
+		eager = null;
+
+		before = MemoryUsage.usedMemory();
+		begin = System.nanoTime();
+		List<LazySubsystem<HeavySubsystem>> lazy = new ArrayList<LazySubsystem<HeavySubsystem>>(3);
+		for (int i = 0; i < 3; i++) {
+			lazy.add(new LazySubsystem<HeavySubsystem>("Heavy" + i, () -> new HeavySubsystem(100, 32 << 20), h -> {}, h -> {}, 60000));
+		}
+		int lazySize = lazy.get(0).use(HeavySubsystem::size);
+		long lazyTime = System.nanoTime() - begin;
+		long lazyBytes = MemoryUsage.usedMemory() - before;
+
+		System.out.printf("Eager: %d ms, %d MB; Lazy: %d ms, %d MB (size %d/%d)%n", eagerTime / 1000000, eagerBytes >> 20, lazyTime / 1000000, lazyBytes >> 20, eagerSize, lazySize);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package adj.felix.java.patterns.ch02.structure.facade;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <pre>
+ * ~~~~ <b>外观模式之生命周期门面</b> ~~~~
+ * {@link FacadePattern.Computer}依次启动/关闭各子系统, 总耗时为各子系统耗时之和。
+ * 生命周期门面中, 每个子系统声明所依赖的子系统:
+ *     (1) 启动时, 子系统在其依赖全部启动成功后立即启动, 互不依赖的子系统并行启动。
+ *     (2) 关闭时顺序相反, 子系统在依赖它的子系统全部关闭后才关闭, 只关闭启动成功的子系统。
+ *     (3) 每个子系统有独立的超时时间, 超时的子系统被中断并标记为TIMEOUT, 依赖它的子系统标记为SKIPPED, 不会阻塞整个门面。
+ *     (4) 每个阶段输出报告, 包含各子系统的状态及耗时。
+ * </pre>
+ * @author adolf.felix
+ */
+public class LifecycleFacadePattern {
+	/** 子系统 **/
+	interface Subsystem {
+		public String name();
+		public void start() throws Exception;
+		public void shutDown() throws Exception;
+	}
+
+	/** 子系统在某个阶段的结果 **/
+	enum Status {
+		SUCCESS, FAILED, TIMEOUT, SKIPPED
+	}
+
+	/** 阶段报告 **/
+	static class PhaseReport {
+		private final String phase;
+		private final Map<String, Status> status = new LinkedHashMap<String, Status>();
+		private final Map<String, Long> elapsed = new LinkedHashMap<String, Long>();
+		private long total;
+
+		public PhaseReport(String phase) {
+			this.phase = phase;
+		}
+
+		synchronized void record(String name, Status status, long nanos) {
+			this.status.put(name, status);
+			this.elapsed.put(name, nanos);
+		}
+
+		public synchronized Status status(String name) {
+			return status.get(name);
+		}
+
+		public synchronized boolean success() {
+			for (Status value : status.values()) {
+				if (value != Status.SUCCESS) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public synchronized String toString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append("************ ").append(phase).append(" ").append(TimeUnit.NANOSECONDS.toMillis(total)).append(" ms ************\n");
+			for (Map.Entry<String, Status> entry : status.entrySet()) {
+				builder.append(String.format("  %-10s %-8s %6d ms%n", entry.getKey(), entry.getValue(), TimeUnit.NANOSECONDS.toMillis(elapsed.get(entry.getKey()))));
+			}
+			return builder.toString();
+		}
+	}
+
+	/** 门面类 **/
+	static class LifecycleFacade {
+		private final Map<String, Subsystem> subsystems = new LinkedHashMap<String, Subsystem>();
+		private final Map<String, List<String>> dependencies = new HashMap<String, List<String>>();
+		private final Map<String, Long> timeouts = new HashMap<String, Long>();
+		private final ExecutorService executor;
+		private final ScheduledExecutorService scheduler;
+		private PhaseReport started;
+
+		public LifecycleFacade() {
+			ThreadFactory factory = runnable -> {
+				Thread thread = new Thread(runnable, "lifecycle");
+				thread.setDaemon(true);
+				return thread;
+			};
+			this.executor = Executors.newCachedThreadPool(factory);
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(factory);
+		}
+
+		/**
+		 * 注册子系统
+		 * @param timeoutMillis 启动及关闭的超时时间
+		 * @param dependsOn 所依赖的子系统, 须先注册
+		 */
+		public LifecycleFacade register(Subsystem subsystem, long timeoutMillis, String... dependsOn) {
+			for (String dependency : dependsOn) {
+				if (!subsystems.containsKey(dependency)) {
+					throw new IllegalArgumentException("Unknown dependency " + dependency + " of " + subsystem.name());
+				}
+			}
+			if (subsystems.putIfAbsent(subsystem.name(), subsystem) != null) {
+				throw new IllegalArgumentException("Duplicate subsystem " + subsystem.name());
+			}
+			dependencies.put(subsystem.name(), Arrays.asList(dependsOn));
+			timeouts.put(subsystem.name(), timeoutMillis);
+			return this;
+		}
+
+		/** 按依赖关系并行启动所有子系统 **/
+		public PhaseReport start() {
+			PhaseReport report = new PhaseReport("Computer start");
+			long begin = System.nanoTime();
+			// 依赖须先注册, 因此注册顺序即为拓扑序
+			Map<String, CompletableFuture<Void>> futures = new HashMap<String, CompletableFuture<Void>>();
+			for (Subsystem subsystem : subsystems.values()) {
+				futures.put(subsystem.name(), schedule(subsystem, futuresOf(futures, dependencies.get(subsystem.name())), report, true));
+			}
+			await(futures);
+			report.total = System.nanoTime() - begin;
+			started = report;
+			return report;
+		}
+
+		/** 按依赖关系的逆序并行关闭启动成功的子系统 **/
+		public PhaseReport shutDown() {
+			PhaseReport report = new PhaseReport("Computer shutDown");
+			long begin = System.nanoTime();
+			Map<String, List<String>> dependents = new HashMap<String, List<String>>();
+			for (String name : subsystems.keySet()) {
+				dependents.put(name, new ArrayList<String>());
+			}
+			for (Map.Entry<String, List<String>> entry : dependencies.entrySet()) {
+				for (String dependency : entry.getValue()) {
+					dependents.get(dependency).add(entry.getKey());
+				}
+			}
+
+			List<Subsystem> reverse = new ArrayList<Subsystem>(subsystems.values());
+			Collections.reverse(reverse);
+			Map<String, CompletableFuture<Void>> futures = new HashMap<String, CompletableFuture<Void>>();
+			for (Subsystem subsystem : reverse) {
+				CompletableFuture<Void> after = futuresOf(futures, dependents.get(subsystem.name()))
+						.handle((value, error) -> null); // 上层关闭失败不影响下层关闭
+				if (started == null || started.status(subsystem.name()) != Status.SUCCESS) {
+					futures.put(subsystem.name(), after);
+					continue;
+				}
+				futures.put(subsystem.name(), schedule(subsystem, after, report, false));
+			}
+			await(futures);
+			report.total = System.nanoTime() - begin;
+			started = null;
+			return report;
+		}
+
+		private CompletableFuture<Void> futuresOf(Map<String, CompletableFuture<Void>> futures, List<String> names) {
+			CompletableFuture<?>[] array = new CompletableFuture<?>[names.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = futures.get(names.get(i));
+			}
+			return CompletableFuture.allOf(array);
+		}
+
+		private CompletableFuture<Void> schedule(Subsystem subsystem, CompletableFuture<Void> after, PhaseReport report, boolean start) {
+			CompletableFuture<Void> result = new CompletableFuture<Void>();
+			after.whenComplete((value, error) -> {
+				if (error != null) {
+					report.record(subsystem.name(), Status.SKIPPED, 0);
+					result.completeExceptionally(error);
+					return;
+				}
+
+				// 完成、失败与超时只有一个生效, 先记录报告再完成, 等待方看到的报告总是完整的
+				AtomicBoolean settled = new AtomicBoolean();
+				long begin = System.nanoTime();
+				Future<?> task = executor.submit(() -> {
+					try {
+						if (start) {
+							subsystem.start();
+						}
+						else {
+							subsystem.shutDown();
+						}
+						if (settled.compareAndSet(false, true)) {
+							report.record(subsystem.name(), Status.SUCCESS, System.nanoTime() - begin);
+							result.complete(null);
+						}
+					} catch (Throwable e) {
+						if (settled.compareAndSet(false, true)) {
+							report.record(subsystem.name(), Status.FAILED, System.nanoTime() - begin);
+							result.completeExceptionally(e);
+						}
+					}
+				});
+				scheduler.schedule(() -> {
+					if (settled.compareAndSet(false, true)) {
+						report.record(subsystem.name(), Status.TIMEOUT, System.nanoTime() - begin);
+						task.cancel(true);
+						result.completeExceptionally(new TimeoutException(subsystem.name()));
+					}
+				}, timeouts.get(subsystem.name()), TimeUnit.MILLISECONDS);
+			});
+			return result;
+		}
+
+		private void await(Map<String, CompletableFuture<Void>> futures) {
+			for (CompletableFuture<Void> future : futures.values()) {
+				try {
+					future.join();
+				} catch (CompletionException e) {
+					// 已记录在报告中
+				}
+			}
+		}
+	}
+
+	/** 以耗时模拟子系统的启动/关闭 **/
+	static class SlowSubsystem implements Subsystem {
+		private final String name;
+		private final Runnable start;
+		private final Runnable shutDown;
+		private final long millis;
+
+		public SlowSubsystem(String name, Runnable start, Runnable shutDown, long millis) {
+			this.name = name;
+			this.start = start;
+			this.shutDown = shutDown;
+			this.millis = millis;
+		}
+
+		@Override
+		public String name() {
+			return name;
+		}
+
+		@Override
+		public void start() throws Exception {
+			Thread.sleep(millis);
+			start.run();
+		}
+
+		@Override
+		public void shutDown() throws Exception {
+			Thread.sleep(millis / 2);
+			shutDown.run();
+		}
+	}
+
+	public static void main(String[] args) {
+		FacadePattern.CPU cpu = new FacadePattern.CPU();
+		FacadePattern.Disk disk = new FacadePattern.Disk();
+		FacadePattern.Memory memory = new FacadePattern.Memory();
+
+		LifecycleFacade computer = new LifecycleFacade()
+				.register(new SlowSubsystem("Memory", memory::start, memory::shutDown, 300), 1000)
+				.register(new SlowSubsystem("Disk", disk::start, disk::shutDown, 400), 1000)
+				.register(new SlowSubsystem("CPU", cpu::start, cpu::shutDown, 200), 1000, "Memory")
+				.register(new SlowSubsystem("Network", () -> {}, () -> {}, 60000), 500)
+				.register(new SlowSubsystem("Display", () -> {}, () -> {}, 100), 1000, "CPU", "Network");
+
+		System.out.println(computer.start());
+		System.out.println(computer.shutDown());
+	}
+}
@@ -0,0 +1,253 @@
+package adj.felix.java.patterns.ch02.structure.flyweight;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import adj.felix.java.patterns.ch02.structure.MemoryUsage;
+
+/**
+ * <pre>
+ * ~~~~ <b>享元模式之批量绘制</b> ~~~~
+ * {@link FlyweightPattern.Circle}把外蕴状态(x, y, radius)存放在共享的享元中, main()在每次draw()之前覆盖它们:
+ * 并发时结果错误, 大批量处理时也很慢。批量绘制中:
+ * 01. 享元只保存内蕴状态(颜色), 外蕴状态作为参数传入draw(), 享元不可变, 可被任意线程共享。
+ * 02. 外蕴状态按列存放在int[]中(x、y、radius及颜色编号), 每种颜色只有一个享元引用, 按颜色编号取得。
+ *     一个循环顺序扫描各列即可绘制或处理数百万个图形, 每个图形约占16字节, 没有对象头及引用。
+ * </pre>
+ * @author adolf.felix
+ */
+public class BatchFlyweightPattern {
+	/** 画布, 只记录圆心处的像素颜色 **/
+	static final class Canvas {
+		private final int mask;
+		private final int[] pixels;
+		private long drawn;
+
+		/**
+		 * @param bits 边长为2^bits
+		 */
+		public Canvas(int bits) {
+			this.mask = (1 << bits) - 1;
+			this.pixels = new int[1 << (bits * 2)];
+		}
+
+		void plot(int x, int y, int rgb) {
+			pixels[((y & mask) * (mask + 1)) + (x & mask)] = rgb;
+			drawn++;
+		}
+
+		public long drawn() {
+			return drawn;
+		}
+
+		public long checksum() {
+			long sum = 0;
+			for (int pixel : pixels) {
+				sum = sum * 31 + pixel;
+			}
+			return sum;
+		}
+	}
+
+	/** 抽象享元角色, 外蕴状态以参数传入 **/
+	interface CircleShape {
+		public String color();
+		public void draw(Canvas canvas, int x, int y, int radius);
+	}
+
+	/** 具体享元角色, 不可变 **/
+	static final class ColorCircle implements CircleShape {
+		private final String color;
+		private final int rgb;
+
+		public ColorCircle(String color) {
+			this.color = color;
+			this.rgb = color.hashCode() & 0xFFFFFF;
+		}
+
+		@Override
+		public String color() {
+			return color;
+		}
+
+		@Override
+		public void draw(Canvas canvas, int x, int y, int radius) {
+			canvas.plot(x, y, rgb);
+		}
+
+		@Override
+		public String toString() {
+			return "Circle {color=" + color + "}";
+		}
+	}
+
+	/** 按列存放外蕴状态的图形批次 **/
+	static class ShapeBatch {
+		private final Map<String, Integer> colorIds = new HashMap<String, Integer>();
+		private final List<CircleShape> flyweights = new ArrayList<CircleShape>();
+		private int size;
+		private int[] x;
+		private int[] y;
+		private int[] radius;
+		private int[] colorId;
+
+		public ShapeBatch(int capacity) {
+			capacity = Math.max(capacity, 16);
+			x = new int[capacity];
+			y = new int[capacity];
+			radius = new int[capacity];
+			colorId = new int[capacity];
+		}
+
+		public void add(String color, int x, int y, int radius) {
+			Integer id = colorIds.get(color);
+			if (id == null) {
+				id = flyweights.size();
+				colorIds.put(color, id);
+				flyweights.add(new ColorCircle(color));
+			}
+			if (size == this.x.length) {
+				int capacity = size * 2;
+				this.x = Arrays.copyOf(this.x, capacity);
+				this.y = Arrays.copyOf(this.y, capacity);
+				this.radius = Arrays.copyOf(this.radius, capacity);
+				this.colorId = Arrays.copyOf(this.colorId, capacity);
+			}
+			this.x[size] = x;
+			this.y[size] = y;
+			this.radius[size] = radius;
+			this.colorId[size] = id;
+			size++;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/** 绘制全部图形 **/
+		public void draw(Canvas canvas) {
+			CircleShape[] shapes = flyweights.toArray(new CircleShape[flyweights.size()]);
+			for (int i = 0; i < size; i++) {
+				shapes[colorId[i]].draw(canvas, x[i], y[i], radius[i]);
+			}
+		}
+
+		/** 各颜色图形的面积之和, 只扫描radius及colorId两列 **/
+		public double[] areaByColor() {
+			long[] squares = new long[flyweights.size()];
+			for (int i = 0; i < size; i++) {
+				squares[colorId[i]] += (long) radius[i] * radius[i];
+			}
+			double[] areas = new double[squares.length];
+			for (int i = 0; i < squares.length; i++) {
+				areas[i] = Math.PI * squares[i];
+			}
+			return areas;
+		}
+
+		public String color(int id) {
+			return flyweights.get(id).color();
+		}
+
+		public long bytes() {
+			return 4L * (x.length + y.length + radius.length + colorId.length);
+		}
+	}
+
+	/** 对比: 每个图形一个对象, 与批次一样保存预先算好的颜色编号, 两者的差别只在于内存布局 **/
+	static final class CircleObject {
+		final String color;
+		final int colorId;
+		final int rgb;
+		final int x;
+		final int y;
+		final int radius;
+
+		CircleObject(String color, int colorId, int x, int y, int radius) {
+			this.color = color;
+			this.colorId = colorId;
+			this.rgb = color.hashCode() & 0xFFFFFF;
+			this.x = x;
+			this.y = y;
+			this.radius = radius;
+		}
+
+		void draw(Canvas canvas) {
+			canvas.plot(x, y, rgb);
+		}
+	}
+
+	public static void main(String[] args) {
+		String[] colors = { "Red", "Green", "Blue", "White", "Black" };
+		ShapeBatch sample = new ShapeBatch(colors.length);
+		for (int i = 0; i < colors.length; i++) {
+			sample.add(colors[i], i, i, 100 + i);
+		}
+		Canvas small = new Canvas(4);
+		sample.draw(small);
+		System.out.println("Drawn = " + small.drawn() + ", Area(" + sample.color(0) + ") = " + sample.areaByColor()[0]);
+
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		Random random = new Random(7);
+		long before = MemoryUsage.usedMemory();
+		List<CircleObject> objects = new ArrayList<CircleObject>(count);
+		for (int i = 0; i < count; i++) {
+			int colorId = random.nextInt(colors.length);
+			objects.add(new CircleObject(colors[colorId], colorId, random.nextInt(4096), random.nextInt(4096), 1 + random.nextInt(100)));
+		}
+		long objectBytes = MemoryUsage.usedMemory() - before;
+
+		ShapeBatch batch = new ShapeBatch(count);
+		for (CircleObject object : objects) {
+			batch.add(object.color, object.x, object.y, object.radius);
+		}
+		System.out.printf("Shapes = %d, Bytes/Shape: Objects = %.1f, Columns = %.1f%n", count, (double) objectBytes / count, (double) batch.bytes() / count);
+
+		for (int round = 0; round < 5; round++) {
+			Canvas objectCanvas = new Canvas(10);
+			long begin = System.nanoTime();
+			for (CircleObject object : objects) {
+				object.draw(objectCanvas);
+			}
+			long objectDraw = System.nanoTime() - begin;
+
+			// 与areaByColor()相同的计算, 只是逐个对象读取
+			begin = System.nanoTime();
+			long[] squares = new long[colors.length];
+			for (CircleObject object : objects) {
+				squares[object.colorId] += (long) object.radius * object.radius;
+			}
+			double[] objectAreas = new double[colors.length];
+			for (int i = 0; i < colors.length; i++) {
+				objectAreas[i] = Math.PI * squares[i];
+			}
+			long objectArea = System.nanoTime() - begin;
+
+			Canvas batchCanvas = new Canvas(10);
+			begin = System.nanoTime();
+			batch.draw(batchCanvas);
+			long batchDraw = System.nanoTime() - begin;
+
+			begin = System.nanoTime();
+			double[] batchAreas = batch.areaByColor();
+			long batchArea = System.nanoTime() - begin;
+
+			if (objectCanvas.checksum() != batchCanvas.checksum() || objectAreas[0] != batchAreas[indexOfColor(batch, colors[0])]) {
+				throw new IllegalStateException("Batch result differs from objects");
+			}
+			System.out.printf("Draw: Objects = %.1f ms, Batch = %.1f ms; Area: Objects = %.1f ms, Batch = %.1f ms%n", objectDraw / 1e6, batchDraw / 1e6, objectArea / 1e6, batchArea / 1e6);
+		}
+	}
+
+	private static int indexOfColor(ShapeBatch batch, String color) {
+		for (int i = 0; ; i++) {
+			if (batch.color(i).equals(color)) {
+				return i;
+			}
+		}
+	}
+}
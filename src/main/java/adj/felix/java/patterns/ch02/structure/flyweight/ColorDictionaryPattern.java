@@ -0,0 +1,318 @@
+package adj.felix.java.patterns.ch02.structure.flyweight;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import adj.felix.java.patterns.ch02.structure.flyweight.FlyweightPattern.Circle;
+import adj.felix.java.patterns.ch02.structure.flyweight.FlyweightPattern.Shape;
+
+/**
+ * <pre>
+ * ~~~~ <b>享元模式之内蕴状态字典</b> ~~~~
+ * {@link FlyweightPattern.ShapeFactory}以颜色字符串为键, 每次create()都要计算哈希并比较字符串。
+ * 内蕴状态字典为每种颜色分配一次紧凑的整数编号, 热点路径以编号为数组下标取得享元, 不再访问字符串。
+ * 01. 字典
+ *     (1) MemoryColorDictionary: 内存中的字典, intern()为新颜色分配下一个编号, 编号从0开始连续分配, 不会回收。
+ *     (2) MappedColorDictionary: 内存映射的只读字典, 打开时只校验文件头, 查找直接在映射区上进行。
+ * 02. 文件格式(小端序)
+ *     (1) 文件头, 16字节: magic(int, "CDIC") | version(int) | count(int) | tableSize(int, 2的幂)
+ *     (2) 偏移表: int[count + 1], 第i种颜色的UTF-8字节为names[offset[i], offset[i + 1])
+ *     (3) 哈希表: int[tableSize], 开放寻址、线性探测, 槽位存放编号 + 1, 0为空; 哈希取String.hashCode()(由规范固定)再扰动
+ *     (4) 名称区: 所有颜色的UTF-8字节
+ * 03. 享元工厂
+ *     DictionaryShapeFactory以数组存放享元, 下标即颜色编号, 享元在首次取用时创建。
+ *     享元逐个写入数组槽位(AtomicReferenceArray, 写入即发布); 编号超出容量时在锁内按倍数扩容, 每次扩容只发布一次新数组,
+ *     预热n种颜色共复制O(n)个引用。
+ * </pre>
+ * @author adolf.felix
+ */
+public class ColorDictionaryPattern {
+	static final int MAGIC = 0x43494443; // "CDIC"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 16;
+
+	/** 颜色字典 **/
+	interface ColorDictionary {
+		/** 颜色的编号, 不存在时返回-1 **/
+		public int idOf(String color);
+		public String color(int id);
+		public int size();
+	}
+
+	/** 内存中的颜色字典 **/
+	static class MemoryColorDictionary implements ColorDictionary {
+		private final Map<String, Integer> ids = new HashMap<String, Integer>();
+		private final List<String> colors = new ArrayList<String>();
+
+		/** 颜色的编号, 不存在时分配新编号 **/
+		public synchronized int intern(String color) {
+			Integer id = ids.get(color);
+			if (id == null) {
+				id = colors.size();
+				ids.put(color, id);
+				colors.add(color);
+			}
+			return id;
+		}
+
+		@Override
+		public synchronized int idOf(String color) {
+			Integer id = ids.get(color);
+			return id == null ? -1 : id;
+		}
+
+		@Override
+		public synchronized String color(int id) {
+			return colors.get(id);
+		}
+
+		@Override
+		public synchronized int size() {
+			return colors.size();
+		}
+
+		/** 写入字典文件 **/
+		public synchronized void save(Path path) throws IOException {
+			int count = colors.size();
+			int tableSize = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+			int[] offsets = new int[count + 1];
+			int[] table = new int[tableSize];
+			byte[][] names = new byte[count][];
+			for (int id = 0; id < count; id++) {
+				names[id] = colors.get(id).getBytes(StandardCharsets.UTF_8);
+				offsets[id + 1] = offsets[id] + names[id].length;
+				int slot = hash(colors.get(id)) & (tableSize - 1);
+				while (table[slot] != 0) {
+					slot = (slot + 1) & (tableSize - 1);
+				}
+				table[slot] = id + 1;
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 4 * (count + 1) + 4 * tableSize + offsets[count]).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(tableSize);
+			for (int offset : offsets) {
+				buffer.putInt(offset);
+			}
+			for (int slot : table) {
+				buffer.putInt(slot);
+			}
+			for (byte[] name : names) {
+				buffer.put(name);
+			}
+			buffer.flip();
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+		}
+	}
+
+	/** 内存映射的只读颜色字典 **/
+	static class MappedColorDictionary implements ColorDictionary {
+		private final int count;
+		private final int tableSize;
+		private final ByteBuffer buffer;
+		private final int tableStart;
+		private final int namesStart;
+
+		private MappedColorDictionary(ByteBuffer buffer, int count, int tableSize) {
+			this.buffer = buffer;
+			this.count = count;
+			this.tableSize = tableSize;
+			this.tableStart = HEADER_BYTES + 4 * (count + 1);
+			this.namesStart = tableStart + 4 * tableSize;
+		}
+
+		/** 映射字典文件, 只校验文件头 **/
+		public static MappedColorDictionary open(Path path) throws IOException {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				long fileLength = channel.size();
+				if (fileLength < HEADER_BYTES || fileLength > Integer.MAX_VALUE) {
+					throw new IOException("Not a color dictionary: " + path);
+				}
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength).order(ByteOrder.LITTLE_ENDIAN);
+				if (buffer.getInt(0) != MAGIC) {
+					throw new IOException("Not a color dictionary: " + path);
+				}
+				if (buffer.getInt(4) != VERSION) {
+					throw new IOException("Unsupported color dictionary version " + buffer.getInt(4) + ": " + path);
+				}
+				int count = buffer.getInt(8);
+				int tableSize = buffer.getInt(12);
+				long namesStart = HEADER_BYTES + 4L * (count + 1) + 4L * tableSize;
+				if (count < 0 || Integer.bitCount(tableSize) != 1 || tableSize <= count || namesStart > fileLength
+						|| namesStart + buffer.getInt(HEADER_BYTES + 4 * count) != fileLength) {
+					throw new IOException("Corrupted color dictionary: " + path);
+				}
+				return new MappedColorDictionary(buffer, count, tableSize);
+			}
+		}
+
+		@Override
+		public int idOf(String color) {
+			byte[] bytes = color.getBytes(StandardCharsets.UTF_8);
+			int slot = hash(color) & (tableSize - 1);
+			while (true) {
+				int entry = buffer.getInt(tableStart + 4 * slot);
+				if (entry == 0) {
+					return -1;
+				}
+				if (matches(entry - 1, bytes)) {
+					return entry - 1;
+				}
+				slot = (slot + 1) & (tableSize - 1);
+			}
+		}
+
+		private boolean matches(int id, byte[] bytes) {
+			int offset = buffer.getInt(HEADER_BYTES + 4 * id);
+			if (buffer.getInt(HEADER_BYTES + 4 * id + 4) - offset != bytes.length) {
+				return false;
+			}
+			for (int i = 0; i < bytes.length; i++) {
+				if (buffer.get(namesStart + offset + i) != bytes[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public String color(int id) {
+			if (id < 0 || id >= count) {
+				throw new IndexOutOfBoundsException("Color id " + id + " of " + count);
+			}
+			int offset = buffer.getInt(HEADER_BYTES + 4 * id);
+			byte[] bytes = new byte[buffer.getInt(HEADER_BYTES + 4 * id + 4) - offset];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = buffer.get(namesStart + offset + i);
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public int size() {
+			return count;
+		}
+	}
+
+	/** 扰动String.hashCode(), 使高位参与槽位计算 **/
+	static int hash(String color) {
+		int h = color.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/** 以颜色编号为下标的享元工厂 **/
+	static class DictionaryShapeFactory {
+		private final ColorDictionary dictionary;
+		private volatile AtomicReferenceArray<Shape> flyweights;
+
+		public DictionaryShapeFactory(ColorDictionary dictionary) {
+			this.dictionary = dictionary;
+			this.flyweights = new AtomicReferenceArray<Shape>(Math.max(dictionary.size(), 16));
+		}
+
+		/** 热点路径: 按编号取得享元 **/
+		public Shape create(int id) {
+			AtomicReferenceArray<Shape> shapes = flyweights;
+			Shape shape = id < shapes.length() ? shapes.get(id) : null;
+			return shape != null ? shape : createSlow(id);
+		}
+
+		/** 按颜色取得享元, 颜色不在字典中时抛出IllegalArgumentException **/
+		public Shape create(String color) {
+			int id = dictionary.idOf(color);
+			if (id < 0) {
+				throw new IllegalArgumentException("Unknown color: " + color);
+			}
+			return create(id);
+		}
+
+		private synchronized Shape createSlow(int id) {
+			AtomicReferenceArray<Shape> shapes = flyweights;
+			if (id < shapes.length() && shapes.get(id) != null) {
+				return shapes.get(id);
+			}
+			// 先校验编号, 再扩容
+			Shape shape = new Circle(dictionary.color(id));
+			if (id >= shapes.length()) {
+				AtomicReferenceArray<Shape> grown = new AtomicReferenceArray<Shape>(Math.max(Math.max(id + 1, shapes.length() * 2), dictionary.size()));
+				for (int i = 0; i < shapes.length(); i++) {
+					grown.lazySet(i, shapes.get(i));
+				}
+				grown.set(id, shape);
+				flyweights = grown;
+				return shape;
+			}
+			shapes.set(id, shape);
+			return shape;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		MemoryColorDictionary dictionary = new MemoryColorDictionary();
+		int colors = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		for (int i = 0; i < colors; i++) {
+			dictionary.intern("Color-" + Integer.toHexString(i * 7919));
+		}
+		DictionaryShapeFactory factory = new DictionaryShapeFactory(dictionary);
+		System.out.println("Id of " + dictionary.color(3) + " = " + dictionary.idOf(dictionary.color(3)) + ", " + (factory.create(3) == factory.create(dictionary.color(3))));
+
+		// 持久化后以内存映射重新打开
+		Path path = Files.createTempFile("colors", ".dict");
+		try {
+			dictionary.save(path);
+			long begin = System.nanoTime();
+			MappedColorDictionary mapped = MappedColorDictionary.open(path);
+			long open = System.nanoTime() - begin;
+			for (int id = 0; id < colors; id++) {
+				if (mapped.idOf(dictionary.color(id)) != id || !mapped.color(id).equals(dictionary.color(id))) {
+					throw new IllegalStateException("Mapped dictionary differs at " + id);
+				}
+			}
+			System.out.printf("Saved %d colors in %d bytes, opened in %.3f ms, Unknown = %d%n", mapped.size(), Files.size(path), open / 1e6, mapped.idOf("Transparent"));
+		} finally {
+			Files.delete(path);
+		}
+
+		// 热点路径: 以字符串为键查找(每个键是独立的String对象, 需逐字符比较)与以编号为下标查找
+		int lookups = 10000000;
+		Random random = new Random(7);
+		String[] keys = new String[lookups];
+		int[] ids = new int[lookups];
+		for (int i = 0; i < lookups; i++) {
+			ids[i] = random.nextInt(colors);
+			keys[i] = new String(dictionary.color(ids[i]).toCharArray());
+		}
+		ConcurrentHashMap<String, Shape> byString = new ConcurrentHashMap<String, Shape>();
+		for (int round = 0; round < 5; round++) {
+			long begin = System.nanoTime();
+			long sink = 0;
+			for (String key : keys) {
+				sink += byString.computeIfAbsent(key, Circle::new) == null ? 1 : 0;
+			}
+			long stringTime = System.nanoTime() - begin;
+
+			begin = System.nanoTime();
+			for (int id : ids) {
+				sink += factory.create(id) == null ? 1 : 0;
+			}
+			long idTime = System.nanoTime() - begin;
+			System.out.printf("Lookups = %d, String key = %.1f ns, Id = %.1f ns (%d)%n", lookups, (double) stringTime / lookups, (double) idTime / lookups, sink);
+		}
+	}
+}
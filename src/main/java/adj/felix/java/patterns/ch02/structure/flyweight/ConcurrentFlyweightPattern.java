@@ -0,0 +1,213 @@
+package adj.felix.java.patterns.ch02.structure.flyweight;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import adj.felix.java.patterns.ch02.structure.flyweight.FlyweightPattern.Circle;
+import adj.felix.java.patterns.ch02.structure.flyweight.FlyweightPattern.Shape;
+
+/**
+ * <pre>
+ * ~~~~ <b>享元模式之并发享元工厂</b> ~~~~
+ * {@link FlyweightPattern.ShapeFactory}原先以静态HashMap缓存享元, 并发访问时可能重复创建享元甚至破坏HashMap, 现已改为ConcurrentHashMap, 但仍从不淘汰, 也没有统计。
+ * 并发享元工厂:
+ * 01. 获取或创建
+ *     先以ConcurrentHashMap.get()查找(无锁), 未命中时再以computeIfAbsent()创建, 同一个键只创建一次。
+ *     命中路径不进入computeIfAbsent, 避免其在部分JDK版本中对已存在的键也加锁的开销。
+ * 02. 容量上限(可选)
+ *     超过上限时以CLOCK算法淘汰: 享元按创建顺序排成环, 每次命中设置引用位; 淘汰时指针沿环移动,
+ *     引用位为1的清零后放回环尾, 为0的淘汰。淘汰由一个线程完成(tryLock), 其他线程不等待。
+ *     享元被淘汰后再次获取会创建新的对象, 因此有上限时不再保证同一个键始终返回同一个对象。
+ * 03. 统计
+ *     命中、未命中、创建及淘汰次数以LongAdder计数, 高并发下计数不会成为竞争点。
+ * </pre>
+ * @author adolf.felix
+ */
+public class ConcurrentFlyweightPattern {
+	/** 享元及其引用位 **/
+	static final class Node<K, V> {
+		final K key;
+		final V value;
+		volatile boolean referenced;
+
+		Node(K key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	/** 并发享元工厂 **/
+	static class FlyweightFactory<K, V> {
+		private final ConcurrentHashMap<K, Node<K, V>> flyweights = new ConcurrentHashMap<K, Node<K, V>>();
+		private final ConcurrentLinkedQueue<Node<K, V>> clock = new ConcurrentLinkedQueue<Node<K, V>>();
+		private final ReentrantLock evicting = new ReentrantLock();
+		private final Function<K, V> factory;
+		private final int maximumSize;
+		private final LongAdder hits = new LongAdder();
+		private final LongAdder misses = new LongAdder();
+		private final LongAdder creations = new LongAdder();
+		private final LongAdder evictions = new LongAdder();
+
+		/** 不限容量 **/
+		public FlyweightFactory(Function<K, V> factory) {
+			this(factory, 0);
+		}
+
+		/**
+		 * @param maximumSize 容量上限, 0表示不限
+		 */
+		public FlyweightFactory(Function<K, V> factory, int maximumSize) {
+			this.factory = factory;
+			this.maximumSize = maximumSize;
+		}
+
+		public V get(K key) {
+			Node<K, V> node = flyweights.get(key);
+			if (node != null) {
+				hits.increment();
+				if (maximumSize > 0 && !node.referenced) {
+					node.referenced = true;
+				}
+				return node.value;
+			}
+
+			misses.increment();
+			node = flyweights.computeIfAbsent(key, k -> {
+				creations.increment();
+				Node<K, V> created = new Node<K, V>(k, factory.apply(k));
+				if (maximumSize > 0) {
+					clock.offer(created);
+				}
+				return created;
+			});
+			if (maximumSize > 0 && flyweights.size() > maximumSize) {
+				evict();
+			}
+			return node.value;
+		}
+
+		/**
+		 * CLOCK淘汰, 直到不超过容量上限。
+		 * 释放锁后再检查一次: 其他线程在本线程退出循环后、释放锁前创建的享元, 其tryLock失败而不会淘汰;
+		 * 若不补上, 所有键都进入工厂后只剩命中, 超出的部分将一直留着。
+		 */
+		private void evict() {
+			do {
+				if (!evicting.tryLock()) {
+					return;
+				}
+				try {
+					while (flyweights.size() > maximumSize) {
+						Node<K, V> node = clock.poll();
+						if (node == null) {
+							return;
+						}
+						if (node.referenced) {
+							node.referenced = false;
+							clock.offer(node);
+						}
+						else if (flyweights.remove(node.key, node)) {
+							evictions.increment();
+						}
+					}
+				} finally {
+					evicting.unlock();
+				}
+			} while (flyweights.size() > maximumSize);
+		}
+
+		public int size() {
+			return flyweights.size();
+		}
+
+		@Override
+		public String toString() {
+			return "Size = " + flyweights.size() + ", Hits = " + hits.sum() + ", Misses = " + misses.sum() + ", Creations = " + creations.sum() + ", Evictions = " + evictions.sum();
+		}
+	}
+
+	/** 对比: 同步的HashMap **/
+	static class SynchronizedFactory<K, V> {
+		private final Map<K, V> flyweights = new HashMap<K, V>();
+		private final Function<K, V> factory;
+
+		public SynchronizedFactory(Function<K, V> factory) {
+			this.factory = factory;
+		}
+
+		public synchronized V get(K key) {
+			return flyweights.computeIfAbsent(key, factory);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		FlyweightFactory<String, Shape> shapes = new FlyweightFactory<String, Shape>(Circle::new);
+		String[] colors = { "Red", "Green", "Blue", "White", "Black" };
+		for (int i = 0; i < 20; i++) {
+			shapes.get(colors[i % colors.length]);
+		}
+		System.out.println(shapes);
+
+		FlyweightFactory<Integer, Shape> bounded = new FlyweightFactory<Integer, Shape>(id -> new Circle("Color" + id), 100);
+		for (int i = 0; i < 10000; i++) {
+			// 前50个键反复使用, 其余键只使用一次
+			bounded.get(i % 2 == 0 ? i % 50 : i);
+		}
+		System.out.println(bounded);
+
+		// 吞吐量: 各线程在256个键上查找; 有上限的工厂只容得下一半的键, 结果包含淘汰及重新创建的代价
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		String[] keys = new String[256];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = "Color" + i;
+		}
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			SynchronizedFactory<String, Shape> synchronizedFactory = new SynchronizedFactory<String, Shape>(Circle::new);
+			ConcurrentHashMap<String, Shape> computeOnly = new ConcurrentHashMap<String, Shape>();
+			FlyweightFactory<String, Shape> unbounded = new FlyweightFactory<String, Shape>(Circle::new);
+			FlyweightFactory<String, Shape> clock = new FlyweightFactory<String, Shape>(Circle::new, keys.length / 2);
+			System.out.printf("Threads = %2d, Synchronized = %6.1f, ComputeIfAbsent = %6.1f, Flyweight = %6.1f, Bounded = %6.1f Mops/s%n", threads,
+					throughput(threads, keys, synchronizedFactory::get),
+					throughput(threads, keys, key -> computeOnly.computeIfAbsent(key, Circle::new)),
+					throughput(threads, keys, unbounded::get),
+					throughput(threads, keys, clock::get));
+			System.out.println("                Bounded: " + clock);
+		}
+	}
+
+	/** 多线程查找的吞吐量, 百万次每秒 **/
+	private static double throughput(int threads, String[] keys, Function<String, Shape> lookup) throws InterruptedException {
+		int lookups = 2000000;
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(threads);
+		long[] sink = new long[threads];
+		for (int t = 0; t < threads; t++) {
+			int index = t;
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				int h = 0;
+				for (int i = 0; i < lookups; i++) {
+					h += lookup.apply(keys[(i + index * 31) & (keys.length - 1)]) == null ? 1 : 0;
+				}
+				sink[index] = h;
+				done.countDown();
+			});
+			thread.setDaemon(true);
+			thread.start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		return (double) threads * lookups / ((System.nanoTime() - begin) / 1e3);
+	}
+}
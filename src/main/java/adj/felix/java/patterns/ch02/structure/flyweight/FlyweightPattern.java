@@ -1,6 +1,6 @@
 package adj.felix.java.patterns.ch02.structure.flyweight;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <pre>
@@ -69,15 +69,21 @@ public class FlyweightPattern {
 	}
 	/** 享元工厂角色 **/
 	static class ShapeFactory {
-		private static final HashMap<String, Shape> circleMap = new HashMap<>();
+		private static final ConcurrentHashMap<String, Shape> circleMap = new ConcurrentHashMap<>();
 
 		public static Shape create(String color) {
-			Circle circle = (Circle) circleMap.get(color);
+			Shape circle = circleMap.get(color);
 
 			if (circle == null) {
-				circle = new Circle(color);
-				circleMap.put(color, circle);
-				System.out.println("Creating circle of color : " + color);
+				// 映射函数在ConcurrentHashMap的桶锁内执行, 只做创建, 输出放在锁外
+				boolean[] created = new boolean[1];
+				circle = circleMap.computeIfAbsent(color, key -> {
+					created[0] = true;
+					return new Circle(key);
+				});
+				if (created[0]) {
+					System.out.println("Creating circle of color : " + color);
+				}
 			}
 			return circle;
 		}
@@ -0,0 +1,168 @@
+package adj.felix.java.patterns.ch02.structure.proxy;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import adj.felix.java.patterns.ch02.structure.proxy.DynamicCglibProxy.CarJdkProxy;
+import adj.felix.java.patterns.ch02.structure.proxy.DynamicCglibProxy.Dispatch;
+import adj.felix.java.patterns.ch02.structure.proxy.MethodHandleJdkProxy.QuietCar;
+import net.sf.cglib.core.DefaultNamingPolicy;
+import net.sf.cglib.core.NamingPolicy;
+import net.sf.cglib.core.Predicate;
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.Factory;
+import net.sf.cglib.proxy.MethodInterceptor;
+
+/**
+ * <pre>
+ * ~~~~ <b>代理模式之Cglib代理类缓存</b> ~~~~
+ * {@link DynamicCglibProxy.CarJdkProxy#getProxyInstance()}每次都新建Enhancer, 依赖cglib内部的缓存; 首次使用时生成字节码, 带来启动延迟及Metaspace增长。
+ * 代理类缓存:
+ * 01. 按"目标类 + 拦截器类型"缓存代理类的原型实例(实现了cglib的Factory接口), 新建代理时以Factory.newInstance(callback)实例化, 不再生成类, 也不经过反射。
+ * 02. 代理类名是确定的: 目标类名 + "$$CglibProxy$$" + 拦截器类型的简单名称 + 拦截器类型全名的哈希。
+ *     生成之前先按类名加载, 若类路径中已有构建时预先生成的类(见{@link ProxyPregenerator}), 直接使用, 运行时不生成字节码。
+ * 03. 限制
+ *     (1) 目标类须有无参构造方法。
+ *     (2) 预先生成的只是代理类; 以{@link Dispatch#FAST_CLASS}方式调用时, MethodProxy仍会在首次调用时生成FastClass。
+ *     (3) JDK 9及以上版本运行时需加上--add-opens java.base/java.lang=ALL-UNNAMED。
+ * </pre>
+ * @author adolf felix
+ */
+public class CachedCglibProxy {
+	/** 代理类的缓存键 **/
+	static final class Key {
+		final Class<?> type;
+		final Class<?> callbackType;
+
+		Key(Class<?> type, Class<?> callbackType) {
+			this.type = type;
+			this.callbackType = callbackType;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return type == key.type && callbackType == key.callbackType;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(type, callbackType);
+		}
+	}
+
+	/** 代理类返回固定类名; MethodProxy沿用同一策略生成FastClass, 这些类仍按cglib默认方式命名 **/
+	static final class FixedNamingPolicy implements NamingPolicy {
+		private final String className;
+
+		FixedNamingPolicy(String className) {
+			this.className = className;
+		}
+
+		@Override
+		public String getClassName(String prefix, String source, Object key, Predicate names) {
+			if (!Enhancer.class.getName().equals(source)) {
+				return DefaultNamingPolicy.INSTANCE.getClassName(prefix, source, key, names);
+			}
+			return className;
+		}
+	}
+
+	/** 代理工厂 **/
+	static class CglibProxyFactory {
+		private static final ConcurrentHashMap<Key, Factory> PROTOTYPES = new ConcurrentHashMap<Key, Factory>();
+		private static final LongAdder GENERATED = new LongAdder();
+		private static final LongAdder LOADED = new LongAdder();
+
+		/** 创建type的代理对象, 方法调用交给interceptor **/
+		public static <T> T newProxy(Class<T> type, MethodInterceptor interceptor) {
+			Key key = new Key(type, interceptor.getClass());
+			Factory prototype = PROTOTYPES.get(key);
+			if (prototype == null) {
+				prototype = PROTOTYPES.computeIfAbsent(key, k -> prototype(proxyClass(k.type, k.callbackType)));
+			}
+			return type.cast(prototype.newInstance(interceptor));
+		}
+
+		/** 加载预先生成的代理类, 不存在时生成 **/
+		static Class<?> proxyClass(Class<?> type, Class<?> callbackType) {
+			String name = proxyName(type, callbackType);
+			try {
+				Class<?> loaded = Class.forName(name, true, type.getClassLoader());
+				LOADED.increment();
+				return loaded;
+			} catch (ClassNotFoundException e) {
+				Class<?> generated = enhancer(type, callbackType).createClass();
+				GENERATED.increment();
+				return generated;
+			}
+		}
+
+		/** 生成代理类所用的Enhancer, 类名固定 **/
+		static Enhancer enhancer(Class<?> type, Class<?> callbackType) {
+			Enhancer enhancer = new Enhancer();
+			enhancer.setSuperclass(type);
+			enhancer.setCallbackType(callbackType);
+			enhancer.setUseCache(false);
+			enhancer.setNamingPolicy(new FixedNamingPolicy(proxyName(type, callbackType)));
+			enhancer.setClassLoader(type.getClassLoader());
+			return enhancer;
+		}
+
+		static String proxyName(Class<?> type, Class<?> callbackType) {
+			return type.getName() + "$$CglibProxy$$" + callbackType.getSimpleName() + "$$" + Integer.toHexString(callbackType.getName().hashCode());
+		}
+
+		/** 代理类的原型实例, 回调为空, 只用于newInstance() **/
+		private static Factory prototype(Class<?> proxyClass) {
+			try {
+				return (Factory) proxyClass.getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalArgumentException("Cannot instantiate " + proxyClass.getName() + ", a no-arg constructor is required", e);
+			}
+		}
+
+		/** 已生成及已加载的代理类数量 **/
+		static long proxyClasses() {
+			return GENERATED.sum() + LOADED.sum();
+		}
+
+		public static String stats() {
+			return "Proxy classes = " + PROTOTYPES.size() + ", Generated = " + GENERATED.sum() + ", Loaded = " + LOADED.sum();
+		}
+	}
+
+	public static void main(String[] args) {
+		// 首次: 生成或加载代理类
+		long begin = System.nanoTime();
+		QuietCar first = CglibProxyFactory.newProxy(QuietCar.class, new CarJdkProxy(new QuietCar(), Dispatch.REFLECTION, false));
+		long firstTime = System.nanoTime() - begin;
+		first.move("School");
+		System.out.println("Proxy Class = " + first.getClass().getName() + ", Mileage = " + first.drive(12));
+		// 同一代理类, 以FastClass方式调用
+		QuietCar fast = CglibProxyFactory.newProxy(QuietCar.class, new CarJdkProxy(new QuietCar(), Dispatch.FAST_CLASS, false));
+		System.out.println("FastClass Proxy Class = " + fast.getClass().getName() + ", Mileage = " + fast.drive(12));
+
+		// 之后: 只实例化
+		int proxies = 100000;
+		begin = System.nanoTime();
+		for (int i = 0; i < proxies; i++) {
+			CglibProxyFactory.newProxy(QuietCar.class, new CarJdkProxy(new QuietCar(), Dispatch.REFLECTION, false));
+		}
+		long cachedTime = (System.nanoTime() - begin) / proxies;
+
+		// 对比: 每次新建Enhancer
+		begin = System.nanoTime();
+		for (int i = 0; i < proxies; i++) {
+			new CarJdkProxy(new QuietCar(), Dispatch.REFLECTION, false).getProxyInstance();
+		}
+		long enhancerTime = (System.nanoTime() - begin) / proxies;
+
+		System.out.printf("First = %.2f ms, Cached = %d ns/proxy, New Enhancer = %d ns/proxy%n", firstTime / 1e6, cachedTime, enhancerTime);
+		System.out.println(CglibProxyFactory.stats());
+	}
+}
@@ -24,6 +24,13 @@ import net.sf.cglib.proxy.MethodProxy;
  *     (01) JDK的动态代理必须实现一个或多个接口, 而Cglib可以代理没有实现接口的类。
  *     (02) Cglib是一个强大的高性能的代码生成包, 可以在运行期扩展java类与实现java接口。
  *     (03) 从执行效率上看, Cglib动态代理效率比JDK高。
+ *     
+ * 04. 调用目标方法
+ *     (01) REFLECTION: method.invoke(target, args), 即反射调用, 每次调用都有访问检查及参数适配的开销。
+ *     (02) FAST_CLASS: proxy.invoke(target, args), MethodProxy在首次调用时为目标类生成FastClass, 以方法编号switch后直接调用, 不经过反射。
+ * 
+ * 05. 运行
+ *     JDK 9及以上版本运行时需加上--add-opens java.base/java.lang=ALL-UNNAMED, 否则cglib无法定义生成的类。
  * </pre>
  * @author adolf felix
  */
@@ -34,12 +41,29 @@ public class DynamicCglibProxy {
 			System.out.println("Car moving to " + dist);
 		}
 	}
+	/** 调用目标方法的方式 **/
+	enum Dispatch {
+		REFLECTION, FAST_CLASS
+	}
+	
 	/** Proxy **/
 	static class CarJdkProxy implements MethodInterceptor {
 		private Object target;
+		private Dispatch dispatch;
+		private boolean monitor;
 		
 		public CarJdkProxy(Object target) {
+			this(target, Dispatch.REFLECTION, true);
+		}
+		
+		/**
+		 * @param dispatch 调用目标方法的方式
+		 * @param monitor 是否输出监控信息, 基准测试时关闭
+		 */
+		public CarJdkProxy(Object target, Dispatch dispatch, boolean monitor) {
 			this.target = target;
+			this.dispatch = dispatch;
+			this.monitor = monitor;
 		}
 		
 		 /**
@@ -66,9 +90,13 @@ public class DynamicCglibProxy {
 	     */
 		@Override
 		public Object intercept(Object object, Method method, Object[] args, MethodProxy proxy) throws Throwable {
-			System.out.println("Starting Monitor...");
-			Object returnValue = method.invoke(target, args);
-			System.out.println("Ending Monitor...");
+			if (monitor) {
+				System.out.println("Starting Monitor...");
+			}
+			Object returnValue = dispatch == Dispatch.FAST_CLASS ? proxy.invoke(target, args) : method.invoke(target, args);
+			if (monitor) {
+				System.out.println("Ending Monitor...");
+			}
 			
 			return returnValue;
 		}
@@ -80,5 +108,8 @@ public class DynamicCglibProxy {
 		
 		System.out.println("Proxy Class = " + proxy);
 		proxy.move("School");
+		
+		Car fast = (Car) new CarJdkProxy(car, Dispatch.FAST_CLASS, true).getProxyInstance();
+		fast.move("Home");
 	}
 }
\ No newline at end of file
@@ -56,9 +56,9 @@ public class DynamicJdkProxy {
 		@Override
 		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
 			System.out.println("Starting Monitor...");
-			method.invoke(moveable, args);
+			Object returnValue = method.invoke(moveable, args);
 			System.out.println("Ending Monitor...");
-			return null;
+			return returnValue;
 		}
 	}
 	
@@ -0,0 +1,311 @@
+package adj.felix.java.patterns.ch02.structure.proxy;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import adj.felix.java.patterns.ch02.structure.proxy.CachedCglibProxy.CglibProxyFactory;
+import adj.felix.java.patterns.ch02.structure.proxy.DynamicCglibProxy.CarJdkProxy;
+import adj.felix.java.patterns.ch02.structure.proxy.DynamicCglibProxy.Dispatch;
+import adj.felix.java.patterns.ch02.structure.proxy.MethodHandleJdkProxy.MethodHandleInvocationHandler;
+import adj.felix.java.patterns.ch02.structure.proxy.MethodHandleJdkProxy.Odometer;
+import adj.felix.java.patterns.ch02.structure.proxy.MethodHandleJdkProxy.QuietCar;
+import net.sf.cglib.proxy.MethodInterceptor;
+import net.sf.cglib.proxy.MethodProxy;
+
+/**
+ * <pre>
+ * ~~~~ <b>代理模式之监控代理</b> ~~~~
+ * 各代理中的"Starting Monitor..."/"Ending Monitor..."只是输出, 监控代理则按方法统计调用次数、异常次数及耗时分布:
+ * 01. 记录
+ *     (1) 每个线程一个记录器, 只有所属线程写入, 写入时不加锁也不做CAS, 以lazySet发布。
+ *     (2) 每个方法占67个long: 调用次数 | 异常次数 | 总耗时 | 64个耗时桶, 第i个桶记录耗时在[2^i, 2^(i+1))纳秒之间的调用。
+ *     (3) 方法在首次调用时分配编号, 记录器容量不足时由所属线程复制扩容后重新发布。
+ * 02. 读取
+ *     snapshot()逐个读取所有线程的记录器并合并, 不阻塞正在记录的线程; 合并结果是近似一致的快照。
+ * 03. 代理
+ *     (1) JDK动态代理: InstrumentedInvocationHandler包装另一个InvocationHandler(如MethodHandleInvocationHandler)。
+ *     (2) Cglib动态代理: InstrumentedInterceptor以MethodProxy.invoke()调用目标对象, 代理类由{@link CachedCglibProxy.CglibProxyFactory}缓存。
+ * 04. 运行: JDK 9及以上版本需加上--add-opens java.base/java.lang=ALL-UNNAMED。
+ * </pre>
+ * @author adolf felix
+ */
+public class InstrumentedProxy {
+	static final int COUNT = 0;
+	static final int ERRORS = 1;
+	static final int TOTAL = 2;
+	static final int BUCKETS = 3;
+	static final int SLOTS = BUCKETS + 64;
+
+	/** 单个线程的记录器 **/
+	static final class Recorder {
+		volatile AtomicLongArray cells;
+
+		Recorder(int methods) {
+			cells = new AtomicLongArray(Math.max(methods, 4) * SLOTS);
+		}
+
+		/** 只能由所属线程调用 **/
+		void record(int id, long nanos, boolean error) {
+			AtomicLongArray current = cells;
+			int base = id * SLOTS;
+			if (base >= current.length()) {
+				current = grow(id);
+			}
+			int bucket = 63 - Long.numberOfLeadingZeros(Math.max(nanos, 1));
+			current.lazySet(base + COUNT, current.get(base + COUNT) + 1);
+			if (error) {
+				current.lazySet(base + ERRORS, current.get(base + ERRORS) + 1);
+			}
+			current.lazySet(base + TOTAL, current.get(base + TOTAL) + nanos);
+			current.lazySet(base + BUCKETS + bucket, current.get(base + BUCKETS + bucket) + 1);
+		}
+
+		private AtomicLongArray grow(int id) {
+			AtomicLongArray current = cells;
+			AtomicLongArray grown = new AtomicLongArray(Math.max(current.length() * 2, (id + 1) * SLOTS));
+			for (int i = 0; i < current.length(); i++) {
+				grown.lazySet(i, current.get(i));
+			}
+			cells = grown;
+			return grown;
+		}
+	}
+
+	/** 某个方法的统计结果 **/
+	static final class MethodStats {
+		final String method;
+		final long count;
+		final long errors;
+		final long totalNanos;
+		final long[] buckets;
+
+		MethodStats(String method, long count, long errors, long totalNanos, long[] buckets) {
+			this.method = method;
+			this.count = count;
+			this.errors = errors;
+			this.totalNanos = totalNanos;
+			this.buckets = buckets;
+		}
+
+		/** 耗时的百分位数(纳秒), 取所在桶的上界 **/
+		public long percentile(double percent) {
+			long rank = (long) Math.ceil(count * percent / 100);
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= rank && seen > 0) {
+					return i == 63 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-24s count=%d, errors=%d, mean=%.0f ns, p50<=%d ns, p99<=%d ns, p99.9<=%d ns", method, count, errors,
+					count == 0 ? 0 : (double) totalNanos / count, percentile(50), percentile(99), percentile(99.9));
+		}
+	}
+
+	/** 按方法统计调用 **/
+	static class Metrics {
+		private final ConcurrentHashMap<Method, Integer> ids = new ConcurrentHashMap<Method, Integer>();
+		private final List<String> names = new CopyOnWriteArrayList<String>();
+		private final List<Recorder> recorders = new CopyOnWriteArrayList<Recorder>();
+		private final ThreadLocal<Recorder> local = ThreadLocal.withInitial(() -> {
+			Recorder recorder = new Recorder(names.size());
+			recorders.add(recorder);
+			return recorder;
+		});
+
+		/** 方法编号, 首次调用时分配 **/
+		int id(Method method) {
+			Integer id = ids.get(method);
+			if (id == null) {
+				id = ids.computeIfAbsent(method, m -> {
+					synchronized (names) {
+						names.add(name(m));
+						return names.size() - 1;
+					}
+				});
+			}
+			return id;
+		}
+
+		void record(int id, long nanos, boolean error) {
+			local.get().record(id, nanos, error);
+		}
+
+		/** 合并所有线程的记录, 按方法编号排列 **/
+		public Map<String, MethodStats> snapshot() {
+			int methods = names.size();
+			long[][] merged = new long[methods][SLOTS];
+			for (Recorder recorder : recorders) {
+				AtomicLongArray cells = recorder.cells;
+				for (int id = 0; id < methods && (id + 1) * SLOTS <= cells.length(); id++) {
+					for (int slot = 0; slot < SLOTS; slot++) {
+						merged[id][slot] += cells.get(id * SLOTS + slot);
+					}
+				}
+			}
+			Map<String, MethodStats> snapshot = new LinkedHashMap<String, MethodStats>();
+			for (int id = 0; id < methods; id++) {
+				long[] buckets = new long[64];
+				System.arraycopy(merged[id], BUCKETS, buckets, 0, 64);
+				snapshot.put(names.get(id), new MethodStats(names.get(id), merged[id][COUNT], merged[id][ERRORS], merged[id][TOTAL], buckets));
+			}
+			return snapshot;
+		}
+
+		private static String name(Method method) {
+			List<String> parameters = new ArrayList<String>();
+			for (Class<?> type : method.getParameterTypes()) {
+				parameters.add(type.getSimpleName());
+			}
+			return method.getDeclaringClass().getSimpleName() + "." + method.getName() + "(" + String.join(", ", parameters) + ")";
+		}
+	}
+
+	/** JDK动态代理的监控处理器 **/
+	static class InstrumentedInvocationHandler implements InvocationHandler {
+		private final InvocationHandler delegate;
+		private final Metrics metrics;
+
+		public InstrumentedInvocationHandler(InvocationHandler delegate, Metrics metrics) {
+			this.delegate = delegate;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			int id = metrics.id(method);
+			boolean error = true;
+			long begin = System.nanoTime();
+			try {
+				Object returnValue = delegate.invoke(proxy, method, args);
+				error = false;
+				return returnValue;
+			} finally {
+				metrics.record(id, System.nanoTime() - begin, error);
+			}
+		}
+	}
+
+	/** Cglib动态代理的监控拦截器 **/
+	static class InstrumentedInterceptor implements MethodInterceptor {
+		private final Object target;
+		private final Metrics metrics;
+
+		public InstrumentedInterceptor(Object target, Metrics metrics) {
+			this.target = target;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public Object intercept(Object object, Method method, Object[] args, MethodProxy proxy) throws Throwable {
+			int id = metrics.id(method);
+			boolean error = true;
+			long begin = System.nanoTime();
+			try {
+				Object returnValue = proxy.invoke(target, args);
+				error = false;
+				return returnValue;
+			} finally {
+				metrics.record(id, System.nanoTime() - begin, error);
+			}
+		}
+	}
+
+	/** 以JDK动态代理监控target **/
+	public static <T> T jdkProxy(Class<T> type, T target, Metrics metrics) {
+		InvocationHandler handler = new InstrumentedInvocationHandler(new MethodHandleInvocationHandler(target), metrics);
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+
+	/** 以Cglib动态代理监控target, type须有无参构造方法 **/
+	public static <T> T cglibProxy(Class<T> type, T target, Metrics metrics) {
+		return CglibProxyFactory.newProxy(type, new InstrumentedInterceptor(target, metrics));
+	}
+
+	/** 负数里程抛出异常的目标对象 **/
+	static class FlakyCar extends QuietCar {
+		@Override
+		public long drive(int km) {
+			if (km < 0) {
+				throw new IllegalArgumentException("km < 0");
+			}
+			return super.drive(km);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Metrics metrics = new Metrics();
+		Odometer jdk = jdkProxy(Odometer.class, new FlakyCar(), metrics);
+		FlakyCar cglib = cglibProxy(FlakyCar.class, new FlakyCar(), metrics);
+
+		// 多个线程同时调用, 读取时合并
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 100000; i++) {
+					int km = i % 1000 == 0 ? -1 : 1;
+					try {
+						jdk.drive(km);
+					} catch (IllegalArgumentException e) {
+						// 计入异常次数
+					}
+					try {
+						cglib.drive(km);
+					} catch (IllegalArgumentException e) {
+						// 计入异常次数
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		cglib.move("School");
+		for (MethodStats stats : metrics.snapshot().values()) {
+			System.out.println(stats);
+		}
+
+		// 每次调用的监控开销
+		int calls = 20000000;
+		Odometer plainJdk = new MethodHandleInvocationHandler(new QuietCar()).newProxy(Odometer.class);
+		Odometer instrumentedJdk = jdkProxy(Odometer.class, new QuietCar(), new Metrics());
+		Odometer plainCglib = (Odometer) new CarJdkProxy(new QuietCar(), Dispatch.FAST_CLASS, false).getProxyInstance();
+		Odometer instrumentedCglib = cglibProxy(QuietCar.class, new QuietCar(), new Metrics());
+		for (int round = 0; round < 5; round++) {
+			double jdkPlain = measure(plainJdk, calls);
+			double jdkInstrumented = measure(instrumentedJdk, calls);
+			double cglibPlain = measure(plainCglib, calls);
+			double cglibInstrumented = measure(instrumentedCglib, calls);
+			System.out.printf("JDK = %5.1f -> %5.1f ns (+%4.1f), Cglib = %5.1f -> %5.1f ns (+%4.1f)%n", jdkPlain, jdkInstrumented, jdkInstrumented - jdkPlain,
+					cglibPlain, cglibInstrumented, cglibInstrumented - cglibPlain);
+		}
+	}
+
+	/** 每次调用的平均耗时 **/
+	private static double measure(Odometer odometer, int calls) {
+		long begin = System.nanoTime();
+		long sink = 0;
+		for (int i = 0; i < calls; i++) {
+			sink += odometer.drive(1);
+		}
+		double elapsed = (double) (System.nanoTime() - begin) / calls;
+		if (sink == 0) {
+			System.out.println(odometer);
+		}
+		return elapsed;
+	}
+}
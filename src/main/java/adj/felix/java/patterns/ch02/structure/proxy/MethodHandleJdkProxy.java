@@ -0,0 +1,161 @@
+package adj.felix.java.patterns.ch02.structure.proxy;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import adj.felix.java.patterns.ch02.structure.proxy.DynamicJdkProxy.Moveable;
+
+/**
+ * <pre>
+ * ~~~~ <b>代理模式之MethodHandle动态代理 </b> ~~~~
+ * {@link DynamicJdkProxy.CarJdkProxy}每次调用都经过Method.invoke: 参数装箱为Object[], 执行访问检查, 且JIT难以内联。
+ * MethodHandle处理器中, 每个接口方法只解析一次:
+ *     (1) unreflect()得到方法句柄并绑定到目标对象, 再适配为(Object[])Object类型的展开句柄, 按Method缓存;
+ *         另以引用比较的小数组保存最近使用的至多8个方法, 命中时不计算Method的哈希也不比较参数类型。
+ *     (2) 调用时以invokeExact()执行缓存的句柄, 不再做访问检查; 目标方法抛出的异常原样抛出, 不包装为InvocationTargetException。
+ *     (3) 返回目标方法的返回值, void方法返回null。
+ * 句柄的调用点仍是处理器中的一处, 不同方法共用, 因此收益主要来自省去的反射开销, 而不是内联。
+ * </pre>
+ * @author adolf felix
+ */
+public class MethodHandleJdkProxy {
+	/** Subject **/
+	interface Odometer {
+		public long drive(int km);
+	}
+
+	/** RealSubject, 不输出任何内容, 用于基准测试 **/
+	static class QuietCar implements Moveable, Odometer {
+		private long mileage;
+		private String destination;
+
+		@Override
+		public void move(String dist) {
+			this.destination = dist;
+		}
+
+		@Override
+		public long drive(int km) {
+			mileage += km;
+			return mileage;
+		}
+
+		@Override
+		public String toString() {
+			return "QuietCar {destination=" + destination + ", mileage=" + mileage + "}";
+		}
+	}
+
+	/** Proxy **/
+	static class MethodHandleInvocationHandler implements InvocationHandler {
+		private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+		private final Object target;
+		private final ConcurrentHashMap<Method, MethodHandle> handles = new ConcurrentHashMap<Method, MethodHandle>();
+		/** 最近使用的方法及句柄, 交替存放; 代理类每次传入同一个Method对象, 以引用比较即可命中 **/
+		private volatile Object[] recent = new Object[0];
+
+		public MethodHandleInvocationHandler(Object target) {
+			this.target = target;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			return (Object) handle(method).invokeExact(args);
+		}
+
+		private MethodHandle handle(Method method) {
+			Object[] cached = recent;
+			for (int i = 0; i < cached.length; i += 2) {
+				if (cached[i] == method) {
+					return (MethodHandle) cached[i + 1];
+				}
+			}
+			MethodHandle handle = handles.computeIfAbsent(method, this::resolve);
+			if (cached.length < 16) {
+				Object[] grown = Arrays.copyOf(cached, cached.length + 2);
+				grown[cached.length] = method;
+				grown[cached.length + 1] = handle;
+				recent = grown;
+			}
+			return handle;
+		}
+
+		/** 解析为绑定到目标对象的(Object[])Object句柄 **/
+		private MethodHandle resolve(Method method) {
+			MethodHandle handle;
+			try {
+				handle = LOOKUP.unreflect(method);
+			} catch (IllegalAccessException e) {
+				// 方法所在的接口对当前类不可见时(如其他包的非公开接口), 关闭访问检查后再解析
+				method.setAccessible(true);
+				try {
+					handle = LOOKUP.unreflect(method);
+				} catch (IllegalAccessException again) {
+					throw new IllegalStateException("Cannot access " + method, again);
+				}
+			}
+			handle = handle.bindTo(target);
+			return handle.asType(MethodType.genericMethodType(handle.type().parameterCount())).asSpreader(Object[].class, handle.type().parameterCount());
+		}
+
+		/** 创建实现了interfaces的代理对象 **/
+		@SuppressWarnings("unchecked")
+		public <T> T newProxy(Class<T> type, Class<?>... interfaces) {
+			Class<?>[] all = new Class<?>[interfaces.length + 1];
+			all[0] = type;
+			System.arraycopy(interfaces, 0, all, 1, interfaces.length);
+			return (T) Proxy.newProxyInstance(type.getClassLoader(), all, this);
+		}
+	}
+
+	/** 对比: 不输出监控信息的反射处理器 **/
+	static class ReflectiveInvocationHandler implements InvocationHandler {
+		private final Object target;
+
+		public ReflectiveInvocationHandler(Object target) {
+			this.target = target;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			return method.invoke(target, args);
+		}
+	}
+
+	public static void main(String[] args) {
+		QuietCar car = new QuietCar();
+		MethodHandleInvocationHandler handler = new MethodHandleInvocationHandler(car);
+		Moveable moveable = handler.newProxy(Moveable.class, Odometer.class);
+		moveable.move("School");
+		System.out.println("Mileage = " + ((Odometer) moveable).drive(12) + ", " + moveable);
+
+		// 基准: 直接调用、Method.invoke处理器、MethodHandle处理器
+		Odometer direct = new QuietCar();
+		Odometer reflective = (Odometer) Proxy.newProxyInstance(Odometer.class.getClassLoader(), new Class<?>[] { Odometer.class }, new ReflectiveInvocationHandler(new QuietCar()));
+		Odometer handles = new MethodHandleInvocationHandler(new QuietCar()).newProxy(Odometer.class);
+		int calls = 20000000;
+		for (int round = 0; round < 5; round++) {
+			System.out.printf("Direct = %5.2f ns, Method.invoke = %5.2f ns, MethodHandle = %5.2f ns%n", measure(direct, calls), measure(reflective, calls), measure(handles, calls));
+		}
+	}
+
+	/** 每次调用的平均耗时 **/
+	private static double measure(Odometer odometer, int calls) {
+		long begin = System.nanoTime();
+		long sink = 0;
+		for (int i = 0; i < calls; i++) {
+			sink += odometer.drive(1);
+		}
+		double elapsed = (double) (System.nanoTime() - begin) / calls;
+		if (sink == 0) {
+			System.out.println(odometer);
+		}
+		return elapsed;
+	}
+}
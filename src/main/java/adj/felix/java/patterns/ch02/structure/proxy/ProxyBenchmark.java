@@ -0,0 +1,77 @@
+package adj.felix.java.patterns.ch02.structure.proxy;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+
+import adj.felix.java.patterns.ch02.structure.proxy.DynamicCglibProxy.CarJdkProxy;
+import adj.felix.java.patterns.ch02.structure.proxy.DynamicCglibProxy.Dispatch;
+import adj.felix.java.patterns.ch02.structure.proxy.MethodHandleJdkProxy.MethodHandleInvocationHandler;
+import adj.felix.java.patterns.ch02.structure.proxy.MethodHandleJdkProxy.Odometer;
+import adj.felix.java.patterns.ch02.structure.proxy.MethodHandleJdkProxy.QuietCar;
+import adj.felix.java.patterns.ch02.structure.proxy.MethodHandleJdkProxy.ReflectiveInvocationHandler;
+
+/**
+ * <pre>
+ * ~~~~ <b>代理模式之基准测试</b> ~~~~
+ * 比较静态代理、JDK动态代理及Cglib动态代理每秒的调用次数及每次调用分配的字节数。
+ * 01. 各代理都不输出监控信息, 目标为{@link MethodHandleJdkProxy.QuietCar}, 调用的方法为long drive(int)。
+ *     各代理共用drive()中的同一个调用点, 调用点的类型统计为多态, 直接调用及静态代理这类纳秒以下的数值波动较大, 仅作量级参考。
+ * 02. 分配的字节数取自com.sun.management.ThreadMXBean.getThreadAllocatedBytes(), 即当前线程在测量期间分配的堆内存;
+ *     动态代理的参数装箱为Object[]及返回值装箱是主要来源, 逃逸分析成功时可能为0。
+ * 03. 运行: JDK 9及以上版本需加上--add-opens java.base/java.lang=ALL-UNNAMED。
+ * </pre>
+ * @author adolf felix
+ */
+public class ProxyBenchmark {
+	/** 保存调用结果, 避免被JIT消除 **/
+	static volatile long sink;
+
+	/** 静态代理, 不输出监控信息 **/
+	static class QuietOdometerProxy implements Odometer {
+		private final Odometer odometer;
+
+		public QuietOdometerProxy(Odometer odometer) {
+			this.odometer = odometer;
+		}
+
+		@Override
+		public long drive(int km) {
+			return odometer.drive(km);
+		}
+	}
+
+	public static void main(String[] args) {
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : 20000000;
+		String[] names = { "Direct", "Static", "JDK Method.invoke", "JDK MethodHandle", "Cglib Method.invoke", "Cglib FastClass" };
+		Odometer[] odometers = {
+				new QuietCar(),
+				new QuietOdometerProxy(new QuietCar()),
+				(Odometer) Proxy.newProxyInstance(Odometer.class.getClassLoader(), new Class<?>[] { Odometer.class }, new ReflectiveInvocationHandler(new QuietCar())),
+				new MethodHandleInvocationHandler(new QuietCar()).newProxy(Odometer.class),
+				(Odometer) new CarJdkProxy(new QuietCar(), Dispatch.REFLECTION, false).getProxyInstance(),
+				(Odometer) new CarJdkProxy(new QuietCar(), Dispatch.FAST_CLASS, false).getProxyInstance(),
+		};
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		for (int round = 0; round < 5; round++) {
+			System.out.println("------------ Round " + round + " ------------");
+			for (int i = 0; i < odometers.length; i++) {
+				long allocated = threads.getThreadAllocatedBytes(thread);
+				long begin = System.nanoTime();
+				sink = drive(odometers[i], calls);
+				long elapsed = System.nanoTime() - begin;
+				allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+				System.out.printf("%-20s %8.1f M calls/s %8.2f bytes/call%n", names[i], calls / (elapsed / 1e3), (double) allocated / calls);
+			}
+		}
+	}
+
+	private static long drive(Odometer odometer, int calls) {
+		long sink = 0;
+		for (int i = 0; i < calls; i++) {
+			sink += odometer.drive(1);
+		}
+		return sink;
+	}
+}
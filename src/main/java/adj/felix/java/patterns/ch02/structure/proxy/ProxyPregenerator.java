@@ -0,0 +1,69 @@
+package adj.felix.java.patterns.ch02.structure.proxy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.objectweb.asm.ClassReader;
+
+import adj.felix.java.patterns.ch02.structure.proxy.CachedCglibProxy.CglibProxyFactory;
+import net.sf.cglib.core.ClassGenerator;
+import net.sf.cglib.core.DefaultGeneratorStrategy;
+import net.sf.cglib.proxy.Enhancer;
+
+/**
+ * <pre>
+ * ~~~~ <b>代理模式之构建时预先生成代理类</b> ~~~~
+ * 在构建时为指定的"目标类 = 拦截器类型"生成代理类, 并把字节码写入输出目录(通常为target/classes)。
+ * 类名与{@link CachedCglibProxy.CglibProxyFactory}运行时使用的类名相同, 运行时直接加载, 不再生成字节码。
+ * 01. 参数
+ *     args[0]为输出目录, 其后为若干"目标类全名=拦截器类型全名", 省略时生成本包示例所用的代理类。
+ * 02. 构建
+ *     mvn -P proxy-pregen package, 在process-classes阶段执行本类。
+ * </pre>
+ * @author adolf felix
+ */
+public class ProxyPregenerator {
+	/** 生成字节码的同时写入class文件 **/
+	static final class ClassFileStrategy extends DefaultGeneratorStrategy {
+		private final Path directory;
+
+		ClassFileStrategy(Path directory) {
+			this.directory = directory;
+		}
+
+		@Override
+		public byte[] generate(ClassGenerator generator) throws Exception {
+			byte[] bytes = super.generate(generator);
+			Path file = directory.resolve(new ClassReader(bytes).getClassName() + ".class");
+			Files.createDirectories(file.getParent());
+			Files.write(file, bytes);
+			return bytes;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			throw new IllegalArgumentException("Usage: ProxyPregenerator <output directory> [<target class>=<interceptor class> ...]");
+		}
+		Path directory = Paths.get(args[0]);
+		String[] pairs = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[] {
+				MethodHandleJdkProxy.QuietCar.class.getName() + "=" + DynamicCglibProxy.CarJdkProxy.class.getName(),
+				DynamicCglibProxy.Car.class.getName() + "=" + DynamicCglibProxy.CarJdkProxy.class.getName(),
+		};
+
+		ClassLoader loader = ProxyPregenerator.class.getClassLoader();
+		for (String pair : pairs) {
+			String[] names = pair.split("=");
+			if (names.length != 2) {
+				throw new IllegalArgumentException("Expected <target class>=<interceptor class>: " + pair);
+			}
+			Class<?> type = Class.forName(names[0], false, loader);
+			Class<?> callbackType = Class.forName(names[1], false, loader);
+			Enhancer enhancer = CglibProxyFactory.enhancer(type, callbackType);
+			enhancer.setStrategy(new ClassFileStrategy(directory));
+			System.out.println("Generated " + enhancer.createClass().getName());
+		}
+	}
+}
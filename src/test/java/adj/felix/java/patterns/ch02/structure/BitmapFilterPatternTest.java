@@ -0,0 +1,65 @@
+package adj.felix.java.patterns.ch02.structure;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import adj.felix.java.patterns.ch02.structure.BitmapFilterPattern.PersonStore;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Filter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Person;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.Criteria;
+
+/**
+ * {@link BitmapFilterPattern}的位图查询结果与逐条过滤的对比。
+ */
+public class BitmapFilterPatternTest {
+
+	private static PersonStore store(List<Person> persons) {
+		// 初始容量较小, 写入过程中会多次扩容
+		PersonStore store = new PersonStore(16);
+		for (Person person : persons) {
+			store.add(person);
+		}
+		return store;
+	}
+
+	@Test
+	public void bitmapResultsMatchLegacyFilters() {
+		List<Person> persons = PredicateFilterPatternTest.persons();
+		PersonStore store = store(persons);
+		for (Filter filter : PredicateFilterPatternTest.FILTERS) {
+			Criteria criteria = PredicateFilterPattern.compile(filter);
+			List<String> bitmap = PredicateFilterPatternTest.names(store.filter(filter));
+			assertEquals(criteria.toString(), PredicateFilterPatternTest.names(criteria.filter(persons)), bitmap);
+			assertEquals(criteria.toString(), new HashSet<String>(PredicateFilterPatternTest.names(filter.filter(persons))), new HashSet<String>(bitmap));
+			assertEquals(criteria.toString(), bitmap.size(), store.count(filter));
+		}
+	}
+
+	@Test
+	public void negationMatchesCriteria() {
+		List<Person> persons = PredicateFilterPatternTest.persons();
+		PersonStore store = store(persons);
+		Criteria[] filters = {
+				PredicateFilterPattern.male().negate(),
+				PredicateFilterPattern.single().negate().and(PredicateFilterPattern.female()),
+				PredicateFilterPattern.married().or(PredicateFilterPattern.male()).negate(),
+		};
+		for (Criteria criteria : filters) {
+			assertEquals(criteria.toString(), PredicateFilterPatternTest.names(criteria.filter(persons)), PredicateFilterPatternTest.names(store.filter(criteria)));
+		}
+	}
+
+	@Test
+	public void rowsKeepOriginalValues() {
+		List<Person> persons = PredicateFilterPatternTest.persons();
+		PersonStore store = store(persons);
+		assertEquals(persons.size(), store.size());
+		for (int row = 0; row < persons.size(); row++) {
+			assertEquals(persons.get(row).toString(), store.get(row).toString());
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package adj.felix.java.patterns.ch02.structure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import adj.felix.java.patterns.ch02.structure.CachedFilterPattern.FilterResultCache;
+import adj.felix.java.patterns.ch02.structure.CachedFilterPattern.PersonDataset;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FemaleFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Filter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FilterAnd;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.MarriedFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Person;
+import adj.felix.java.patterns.ch02.structure.FilterPlannerPattern.NameLengthCriteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.Criteria;
+
+/**
+ * {@link CachedFilterPattern}的缓存结果与直接过滤的对比。
+ */
+public class CachedFilterPatternTest {
+
+	private static void assertMatches(FilterResultCache cache, PersonDataset dataset) {
+		for (Filter filter : PredicateFilterPatternTest.FILTERS) {
+			List<Person> cached = cache.filter(filter);
+			String message = PredicateFilterPattern.compile(filter).toString();
+			assertEquals(message, PredicateFilterPattern.compile(filter).filter(dataset.persons()), cached);
+			assertEquals(message, new HashSet<Person>(filter.filter(dataset.persons())), new HashSet<Person>(cached));
+		}
+	}
+
+	@Test
+	public void resultsMatchAcrossAppendsAndUpdates() {
+		PersonDataset dataset = new PersonDataset();
+		dataset.append(PredicateFilterPatternTest.persons());
+		FilterResultCache cache = new FilterResultCache(dataset, 64 << 20);
+		assertMatches(cache, dataset);
+		// 未变化: 直接命中
+		assertMatches(cache, dataset);
+
+		// 追加: 增量过滤新增的记录
+		dataset.append(PredicateFilterPattern.generate(500, 3));
+		assertMatches(cache, dataset);
+
+		// 修改及删除: 纪元加一, 重新过滤
+		dataset.set(0, new Person("Changed", "Female", "Married"));
+		assertMatches(cache, dataset);
+		dataset.remove(1);
+		assertMatches(cache, dataset);
+		// 5轮中第2轮为命中、第3轮为增量命中, 其余为未命中
+		assertEquals(2.0 / 5, cache.hitRatio(), 1e-9);
+	}
+
+	@Test
+	public void equivalentExpressionsShareEntry() {
+		PersonDataset dataset = new PersonDataset();
+		dataset.append(PredicateFilterPatternTest.persons());
+		FilterResultCache cache = new FilterResultCache(dataset, 64 << 20);
+		List<Person> first = cache.filter(new FilterAnd(new MarriedFilter(), new FemaleFilter()));
+		List<Person> second = cache.filter(new FilterAnd(new FemaleFilter(), new FilterAnd(new MarriedFilter(), new FemaleFilter())));
+		assertSame(first, second);
+		assertSame(first, cache.filter(PredicateFilterPattern.female().negate().negate().and(PredicateFilterPattern.married())));
+	}
+
+	@Test
+	public void smallBudgetEvictsButStaysCorrect() {
+		PersonDataset dataset = new PersonDataset();
+		dataset.append(PredicateFilterPatternTest.persons());
+		// 只容得下约一个结果
+		FilterResultCache cache = new FilterResultCache(dataset, 6000);
+		for (int round = 0; round < 3; round++) {
+			assertMatches(cache, dataset);
+			dataset.append(PredicateFilterPattern.generate(10, round));
+		}
+	}
+
+	@Test
+	public void opaqueCriteriaBypassCache() {
+		PersonDataset dataset = new PersonDataset();
+		dataset.append(PredicateFilterPatternTest.persons());
+		FilterResultCache cache = new FilterResultCache(dataset, 64 << 20);
+		Criteria criteria = new NameLengthCriteria(5).and(PredicateFilterPattern.female());
+		assertEquals(criteria.filter(dataset.persons()), cache.filter(criteria));
+		assertEquals(criteria.filter(dataset.persons()), cache.filter(criteria));
+
+		// toString()相同而参数不同的谓词不能共用结果
+		Criteria shortNames = new Custom(4);
+		Criteria longNames = new Custom(5);
+		assertEquals(shortNames.filter(dataset.persons()), cache.filter(shortNames));
+		assertEquals(longNames.filter(dataset.persons()), cache.filter(longNames));
+		Criteria femaleShort = PredicateFilterPattern.female().and(shortNames);
+		Criteria femaleLong = PredicateFilterPattern.female().and(longNames);
+		assertEquals(femaleShort.filter(dataset.persons()), cache.filter(femaleShort));
+		assertEquals(femaleLong.filter(dataset.persons()), cache.filter(femaleLong));
+		assertEquals(0, cache.hitRatio(), 0);
+	}
+
+	@Test
+	public void appendKeepsReturnedResults() {
+		PersonDataset dataset = new PersonDataset();
+		dataset.append(PredicateFilterPatternTest.persons());
+		FilterResultCache cache = new FilterResultCache(dataset, 64 << 20);
+		Filter filter = new FilterAnd(new MarriedFilter(), new FemaleFilter());
+		List<Person> before = cache.filter(filter);
+		List<Person> copy = new ArrayList<Person>(before);
+
+		for (int round = 0; round < 20; round++) {
+			dataset.append(PredicateFilterPattern.generate(100, round));
+			List<Person> after = cache.filter(filter);
+			assertEquals(PredicateFilterPattern.compile(filter).filter(dataset.persons()), after);
+			assertEquals(copy, after.subList(0, copy.size()));
+		}
+		// 已返回的列表不随追加变化
+		assertEquals(copy, before);
+		try {
+			before.add(copy.get(0));
+			fail("Cached result is writable");
+		} catch (UnsupportedOperationException expected) {
+		}
+	}
+
+	/** 覆盖了toString()但不含参数的谓词 **/
+	static final class Custom extends Criteria {
+		private final int minLength;
+
+		Custom(int minLength) {
+			this.minLength = minLength;
+		}
+
+		@Override
+		boolean test(Person person) {
+			return person.name.length() >= minLength;
+		}
+
+		@Override
+		public String toString() {
+			return "CUSTOM";
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package adj.felix.java.patterns.ch02.structure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FemaleFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Filter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FilterAnd;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FilterOr;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.MarriedFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Person;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.SingleFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPlannerPattern.NameLengthCriteria;
+import adj.felix.java.patterns.ch02.structure.FilterPlannerPattern.Planner;
+import adj.felix.java.patterns.ch02.structure.FilterPlannerPattern.Statistics;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.AndCriteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.Criteria;
+import adj.felix.java.patterns.ch02.structure.PredicateFilterPattern.OrCriteria;
+
+/**
+ * {@link FilterPlannerPattern}重排后的计划与原过滤器的结果对比。
+ */
+public class FilterPlannerPatternTest {
+
+	/** 记录求值次数的不透明谓词 **/
+	static final class CountingCriteria extends Criteria {
+		int calls;
+
+		@Override
+		boolean test(Person person) {
+			calls++;
+			return person.name.endsWith("7");
+		}
+	}
+
+	@Test
+	public void plansMatchLegacyFilters() {
+		List<Person> persons = PredicateFilterPatternTest.persons();
+		persons.addAll(FilterPlannerPattern.generateSkewed(3000, 5));
+		Planner planner = new Planner(new Statistics(persons));
+		for (Filter filter : PredicateFilterPatternTest.FILTERS) {
+			Criteria plan = planner.plan(filter);
+			List<String> planned = PredicateFilterPatternTest.names(plan.filter(persons));
+			// 谓词树一次遍历输出, 无论操作数如何排列, 结果顺序都与输入一致
+			assertEquals(plan.toString(), PredicateFilterPatternTest.names(PredicateFilterPattern.compile(filter).filter(persons)), planned);
+			assertEquals(plan.toString(), new HashSet<String>(PredicateFilterPatternTest.names(filter.filter(persons))), new HashSet<String>(planned));
+			assertTrue(planner.explain(plan, persons).startsWith("Plan"));
+		}
+	}
+
+	@Test
+	public void opaqueCriteriaRunAfterKnownPredicates() {
+		List<Person> persons = FilterPlannerPattern.generateSkewed(5000, 3);
+		Planner planner = new Planner(new Statistics(persons));
+		CountingCriteria opaque = new CountingCriteria();
+
+		Criteria plan = planner.plan(new FilterAnd(opaque, new FilterAnd(new MarriedFilter(), new FemaleFilter())));
+		assertTrue(plan instanceof AndCriteria);
+		assertSame(opaque, ((AndCriteria) plan).right);
+
+		List<Person> result = plan.filter(persons);
+		int known = PredicateFilterPattern.married().and(PredicateFilterPattern.female()).filter(persons).size();
+		assertEquals(known, opaque.calls);
+		assertEquals(new FilterAnd(new MarriedFilter(), new FemaleFilter()).filter(persons).stream().filter(p -> p.name.endsWith("7")).count(), result.size());
+	}
+
+	@Test
+	public void opaqueCriteriaInsideOrAndNot() {
+		List<Person> persons = FilterPlannerPattern.generateSkewed(5000, 3);
+		Planner planner = new Planner(new Statistics(persons));
+		Criteria written = new OrCriteria(new NameLengthCriteria(5), PredicateFilterPattern.single()).and(new NameLengthCriteria(4).negate());
+		Criteria plan = planner.plan(new FilterOr(written, new SingleFilter()));
+		assertEquals(PredicateFilterPatternTest.names(new FilterOr(written, new SingleFilter()).filter(persons)).size(), plan.filter(persons).size());
+		planner.explain(plan, persons);
+	}
+}
@@ -0,0 +1,106 @@
+package adj.felix.java.patterns.ch02.structure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FemaleFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Filter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FilterAnd;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.FilterOr;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.MaleFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.MarriedFilter;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.Person;
+import adj.felix.java.patterns.ch02.structure.FilterPattern.SingleFilter;
+
+/**
+ * {@link FilterPattern}的过滤器及{@link PredicateFilterPattern}编译结果的对比。
+ */
+public class PredicateFilterPatternTest {
+	/** 同一批人员上对比的过滤器组合 **/
+	static final Filter[] FILTERS = {
+			new MaleFilter(),
+			new FemaleFilter(),
+			new SingleFilter(),
+			new MarriedFilter(),
+			new FilterAnd(new MarriedFilter(), new FemaleFilter()),
+			new FilterAnd(new FemaleFilter(), new FilterOr(new SingleFilter(), new MarriedFilter())),
+			new FilterOr(new SingleFilter(), new FemaleFilter()),
+			new FilterOr(new FilterAnd(new MaleFilter(), new MarriedFilter()), new FilterAnd(new FemaleFilter(), new SingleFilter())),
+	};
+
+	/** 包含大小写不同及缺失的取值 **/
+	static List<Person> persons() {
+		List<Person> persons = PredicateFilterPattern.generate(2000, 11);
+		persons.add(new Person("Upper", "FEMALE", "MARRIED"));
+		persons.add(new Person("Lower", "male", "single"));
+		persons.add(new Person("NoGender", null, "Single"));
+		persons.add(new Person("NoMarital", "Female", null));
+		return persons;
+	}
+
+	static List<String> names(List<Person> persons) {
+		List<String> names = new ArrayList<String>();
+		for (Person person : persons) {
+			names.add(person.name);
+		}
+		return names;
+	}
+
+	@Test
+	public void femaleFilterMatchesOnlyFemales() {
+		List<Person> persons = persons();
+		List<Person> females = new FemaleFilter().filter(persons);
+		assertTrue(!females.isEmpty());
+		for (Person person : females) {
+			assertTrue(person.toString(), "FEMALE".equalsIgnoreCase(person.gender));
+		}
+
+		// 男性与女性互不重叠, 合起来是所有有性别的人员
+		List<Person> males = new MaleFilter().filter(persons);
+		HashSet<String> both = new HashSet<String>(names(males));
+		both.retainAll(names(females));
+		assertTrue(both.isEmpty());
+		assertEquals(persons.size() - 1, males.size() + females.size());
+	}
+
+	@Test
+	public void compiledCriteriaMatchLegacyFilters() {
+		List<Person> persons = persons();
+		for (Filter filter : FILTERS) {
+			List<String> legacy = names(filter.filter(persons));
+			List<String> compiled = names(PredicateFilterPattern.compile(filter).filter(persons));
+			String message = PredicateFilterPattern.compile(filter).toString();
+			// FilterOr把第二个过滤器的结果追加在后面, 只比较集合; 其他过滤器保持输入顺序
+			if (containsOr(filter)) {
+				assertEquals(message, new HashSet<String>(legacy), new HashSet<String>(compiled));
+				assertEquals(message, legacy.size(), compiled.size());
+			}
+			else {
+				assertEquals(message, legacy, compiled);
+			}
+		}
+	}
+
+	static boolean containsOr(Filter filter) {
+		if (filter instanceof FilterOr) {
+			return true;
+		}
+		if (filter instanceof FilterAnd) {
+			return containsOr(((FilterAnd) filter).filter) || containsOr(((FilterAnd) filter).otherFilter);
+		}
+		return false;
+	}
+
+	@Test
+	public void negationKeepsMissingValues() {
+		List<Person> persons = Arrays.asList(new Person("A", null, "Single"), new Person("B", "Male", "Single"));
+		assertEquals(Arrays.asList("A"), names(PredicateFilterPattern.male().negate().filter(persons)));
+	}
+}
@@ -0,0 +1,283 @@
+package adj.felix.java.patterns.ch02.structure.composite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import adj.felix.java.patterns.ch02.structure.composite.IterativeCompositeTraversal.TreeCursor;
+import adj.felix.java.patterns.ch02.structure.composite.PathIndexCompositePattern.File;
+import adj.felix.java.patterns.ch02.structure.composite.PathIndexCompositePattern.Folder;
+import adj.felix.java.patterns.ch02.structure.composite.PathIndexCompositePattern.Root;
+
+/**
+ * {@link PathIndexCompositePattern}树枝构件的聚合值及一致性校验。
+ */
+public class PathIndexCompositePatternTest {
+
+	/** 逐个遍历重新统计{子孙节点数, 子树总大小} **/
+	private static long[] recount(Root root) {
+		long[] weight = new long[2];
+		TreeCursor cursor = new TreeCursor(root);
+		while (cursor.next()) {
+			weight[0]++;
+			weight[1] += cursor.node().getSize();
+		}
+		weight[0]--;
+		return weight;
+	}
+
+	private static void assertAggregates(Folder folder) {
+		PathIndexCompositePattern.checkConsistency(folder);
+		long[] expect = recount(folder);
+		assertEquals(expect[0], folder.getDescendantCount());
+		assertEquals(expect[1], folder.getTotalSize());
+		assertEquals(expect[0] + 1, PathIndexCompositePattern.weight(folder)[0]);
+		assertEquals(expect[1], PathIndexCompositePattern.weight(folder)[1]);
+	}
+
+	@Test
+	public void addRemoveRenameKeepAggregates() {
+		Folder c = new Folder("C:");
+		Folder programFiles = new Folder("Program Files");
+		Folder adobeSoft = new Folder("Adobe Soft");
+		File template = new File("Template.java", 1024);
+		File readMe = new File("ReadMe.txt", 10);
+
+		assertTrue(c.add(programFiles));
+		assertTrue(programFiles.add(adobeSoft));
+		assertTrue(adobeSoft.add(template));
+		assertTrue(c.add(readMe));
+		assertAggregates(c);
+		assertEquals(4, c.getDescendantCount());
+		assertEquals(1034, c.getTotalSize());
+
+		assertTrue(programFiles.rename(adobeSoft, "Adobe"));
+		assertSame(template, PathIndexCompositePattern.find(c, "Program Files/Adobe/Template.java"));
+		assertNull(PathIndexCompositePattern.find(c, "Program Files/Adobe Soft"));
+		assertAggregates(c);
+
+		assertTrue(programFiles.remove(adobeSoft));
+		assertNull(adobeSoft.getParent());
+		assertAggregates(c);
+		assertAggregates(adobeSoft);
+		assertEquals(2, c.getDescendantCount());
+		assertEquals(10, c.getTotalSize());
+
+		// 移除后可以挂到其他上级
+		assertTrue(c.add(adobeSoft));
+		assertSame(c, adobeSoft.getParent());
+		assertAggregates(c);
+		assertEquals(1034, c.getTotalSize());
+	}
+
+	@Test
+	public void renameKeepsOrderAndRejectsConflicts() {
+		Folder folder = new Folder("root");
+		File a = new File("a", 1);
+		File b = new File("b", 2);
+		File c = new File("c", 3);
+		folder.add(a);
+		folder.add(b);
+		folder.add(c);
+
+		assertTrue(folder.rename(b, "x"));
+		assertEquals(Arrays.asList("a", "x", "c"), names(folder));
+		assertFalse(folder.rename(a, "c"));
+		assertTrue(folder.rename(a, "a"));
+		assertFalse(folder.rename(new File("d", 4), "e"));
+		assertEquals(Arrays.asList("a", "x", "c"), names(folder));
+		assertAggregates(folder);
+	}
+
+	@Test
+	public void randomMutationsMatchRecount() {
+		Random random = new Random(42);
+		Folder root = new Folder("root");
+		List<Folder> folders = new ArrayList<Folder>();
+		folders.add(root);
+		List<Root> attached = new ArrayList<Root>();
+
+		for (int step = 0; step < 5000; step++) {
+			Folder target = folders.get(random.nextInt(folders.size()));
+			int action = random.nextInt(10);
+			if (action < 4) {
+				Folder folder = new Folder("d" + step);
+				if (target.add(folder)) {
+					folders.add(folder);
+					attached.add(folder);
+				}
+			}
+			else if (action < 7) {
+				File file = new File("f" + step, random.nextInt(1000));
+				if (target.add(file)) {
+					attached.add(file);
+				}
+			}
+			else if (action < 9 && !target.getChilds().isEmpty()) {
+				List<Root> childs = new ArrayList<Root>(target.getChilds());
+				Root child = childs.get(random.nextInt(childs.size()));
+				if (random.nextBoolean()) {
+					assertTrue(target.remove(child));
+				}
+				else {
+					target.rename(child, child.getDescribe() + "'");
+				}
+			}
+			else {
+				// 读取为O(1), 任意时刻的聚合值都应与重新统计一致
+				assertEquals(recount(target)[1], target.getTotalSize());
+			}
+			if (step % 250 == 0) {
+				assertAggregates(root);
+			}
+		}
+		assertAggregates(root);
+	}
+
+	@Test
+	public void cyclesAreRejected() {
+		Folder a = new Folder("a");
+		Folder b = new Folder("b");
+		Folder c = new Folder("c");
+		a.add(b);
+		b.add(c);
+
+		try {
+			a.add(a);
+			fail("Added a folder to itself");
+		} catch (IllegalArgumentException expected) {
+		}
+		try {
+			c.add(a);
+			fail("Added an ancestor as a child");
+		} catch (IllegalArgumentException expected) {
+		}
+		try {
+			b.add(a);
+			fail("Added the parent as a child");
+		} catch (IllegalArgumentException expected) {
+		}
+		assertNull(a.getParent());
+		assertTrue(c.getChilds().isEmpty());
+		assertAggregates(a);
+	}
+
+	@Test
+	public void folderWithAnotherParentIsRejected() {
+		Folder first = new Folder("first");
+		Folder second = new Folder("second");
+		Folder child = new Folder("child");
+		assertTrue(first.add(child));
+
+		assertFalse(second.add(child));
+		assertTrue(first.add(child));
+		assertSame(first, child.getParent());
+		assertTrue(second.getChilds().isEmpty());
+
+		assertTrue(first.remove(child));
+		assertTrue(second.add(child));
+		assertAggregates(first);
+		assertAggregates(second);
+	}
+
+	@Test(timeout = 10000)
+	public void deepChainBuiltBottomUpIsLinear() {
+		Folder bottom = new Folder("bottom");
+		bottom.add(new File("file", 7));
+		Folder top = bottom;
+		for (int i = 0; i < 1000000; i++) {
+			Folder parent = new Folder("d" + i);
+			parent.add(top);
+			top = parent;
+		}
+		assertEquals(1000001, top.getDescendantCount());
+		assertEquals(7, top.getTotalSize());
+		PathIndexCompositePattern.checkConsistency(top);
+
+		// 写入为O(深度), 沿父链传播到顶层
+		assertTrue(bottom.add(new File("more", 5)));
+		assertEquals(1000002, top.getDescendantCount());
+		assertEquals(12, top.getTotalSize());
+	}
+
+	@Test
+	public void foreignCompositeIsRemovedByItsSnapshot() {
+		Folder folder = new Folder("root");
+		Bag bag = new Bag("bag");
+		bag.add(new File("a", 3));
+		bag.add(new File("b", 4));
+		assertTrue(folder.add(bag));
+		assertEquals(3, folder.getDescendantCount());
+		assertEquals(7, folder.getTotalSize());
+
+		// 添加后非本类构件的内容变化不会传播, 移除时扣除添加时的快照
+		bag.add(new File("c", 5));
+		assertEquals(7, folder.getTotalSize());
+		assertTrue(folder.remove(bag));
+		assertEquals(0, folder.getDescendantCount());
+		assertEquals(0, folder.getTotalSize());
+	}
+
+	/** 非本类的树枝构件 **/
+	static class Bag implements Root {
+		private final String describe;
+		private final List<Root> childs = new ArrayList<Root>();
+
+		Bag(String describe) {
+			this.describe = describe;
+		}
+
+		@Override
+		public boolean add(Root root) {
+			return childs.add(root);
+		}
+
+		@Override
+		public boolean remove(Root root) {
+			return childs.remove(root);
+		}
+
+		@Override
+		public Root getChild(String name) {
+			for (Root child : childs) {
+				if (child.getDescribe().equals(name)) {
+					return child;
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public List<Root> getChilds() {
+			return childs;
+		}
+
+		@Override
+		public String getDescribe() {
+			return describe;
+		}
+
+		@Override
+		public long getSize() {
+			return 0;
+		}
+	}
+
+	private static List<String> names(Root folder) {
+		List<String> names = new ArrayList<String>();
+		for (Root child : folder.getChilds()) {
+			names.add(child.getDescribe());
+		}
+		return names;
+	}
+}
@@ -0,0 +1,74 @@
+package adj.felix.java.patterns.ch02.structure.composite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import adj.felix.java.patterns.ch02.structure.composite.PathIndexCompositePattern.Folder;
+import adj.felix.java.patterns.ch02.structure.composite.PathIndexCompositePattern.Root;
+import adj.felix.java.patterns.ch02.structure.composite.SnapshotCompositePattern.Snapshot;
+
+/**
+ * {@link SnapshotCompositePattern}快照的写入、映射及规模上限。
+ */
+public class SnapshotCompositePatternTest {
+	@Rule
+	public TemporaryFolder temporary = new TemporaryFolder();
+
+	@Test
+	public void snapshotMatchesTree() throws IOException {
+		Root tree = PathIndexCompositePattern.generate(10000, 16);
+		Path path = temporary.getRoot().toPath().resolve("tree.snapshot");
+		assertEquals(10000, SnapshotCompositePattern.write(tree, path));
+
+		Snapshot snapshot = Snapshot.open(path);
+		assertEquals(10000, snapshot.count());
+		long[] weight = PathIndexCompositePattern.weight(snapshot.root());
+		assertEquals(10000, weight[0]);
+		assertEquals(((Folder) tree).getTotalSize(), weight[1]);
+		assertEquals("d17", PathIndexCompositePattern.find(snapshot.root(), "d1/d17").getDescribe());
+	}
+
+	@Test
+	public void tooManyNodesAreRejected() throws IOException {
+		Root tree = PathIndexCompositePattern.generate(101, 16);
+		Path path = temporary.getRoot().toPath().resolve("nodes.snapshot");
+		assertEquals(100, SnapshotCompositePattern.write(PathIndexCompositePattern.generate(100, 16), path, 100, 1 << 20));
+		Files.delete(path);
+		try {
+			SnapshotCompositePattern.write(tree, path, 100, 1 << 20);
+			fail("Wrote 101 nodes with a limit of 100");
+		} catch (IllegalArgumentException expected) {
+		}
+		assertFalse(Files.exists(path));
+	}
+
+	@Test
+	public void tooLongNamesAreRejected() throws IOException {
+		Folder tree = new Folder("root");
+		tree.add(new PathIndexCompositePattern.File("12345", 1));
+		Path path = temporary.getRoot().toPath().resolve("names.snapshot");
+		assertEquals(2, SnapshotCompositePattern.write(tree, path, 100, 9));
+		Files.delete(path);
+		try {
+			SnapshotCompositePattern.write(tree, path, 100, 8);
+			fail("Wrote 9 name bytes with a limit of 8");
+		} catch (IllegalArgumentException expected) {
+		}
+		assertFalse(Files.exists(path));
+	}
+
+	@Test
+	public void limitsKeepOffsetsInIntRange() {
+		assertTrue((long) SnapshotCompositePattern.MAX_NODES * SnapshotCompositePattern.RECORD_BYTES <= Integer.MAX_VALUE);
+	}
+}
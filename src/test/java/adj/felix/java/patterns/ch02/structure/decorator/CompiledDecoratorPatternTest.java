@@ -0,0 +1,58 @@
+package adj.felix.java.patterns.ch02.structure.decorator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import adj.felix.java.patterns.ch02.structure.decorator.CompiledDecoratorPattern.CompiledDrinking;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.Coffee;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.IDrinking;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.MilkToDrinking;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.SugarToDrinking;
+
+/**
+ * {@link CompiledDecoratorPattern}编译结果的读取及继续装饰。
+ */
+public class CompiledDecoratorPatternTest {
+
+	@Test
+	public void compiledMatchesChain() {
+		IDrinking drinking = CompiledDecoratorPattern.decorate(new Coffee("Latte", 20), 9);
+		CompiledDrinking compiled = CompiledDecoratorPattern.compile(drinking);
+
+		assertEquals(9, compiled.depth());
+		assertEquals(drinking.price(), compiled.price(), 0);
+		assertEquals(drinking.priceCents(), compiled.priceCents());
+		assertEquals(drinking.describe(), compiled.describe());
+		assertSame(compiled, CompiledDecoratorPattern.compile(compiled));
+	}
+
+	@Test
+	public void describeIsCachedAndReadOnly() {
+		CompiledDrinking compiled = CompiledDecoratorPattern.compile(new MilkToDrinking(new SugarToDrinking(new Coffee("Latte", 20))));
+		Map<String, Object> describe = compiled.describe();
+		assertSame(describe, compiled.describe());
+		try {
+			describe.put("addition", "Ice");
+			fail("Compiled description is writable");
+		} catch (UnsupportedOperationException expected) {
+		}
+	}
+
+	@Test
+	public void compiledCanBeDecoratedAgain() {
+		CompiledDrinking compiled = CompiledDecoratorPattern.compile(new MilkToDrinking(new SugarToDrinking(new Coffee("Latte", 20))));
+		IDrinking more = new MilkToDrinking(new SugarToDrinking(compiled));
+
+		assertEquals("Sugger + Milk + Sugger + Milk", more.describe().get("addition"));
+		assertEquals(28, more.price(), 0);
+		assertEquals(2800, more.priceCents());
+		// 继续装饰不会修改编译结果
+		assertEquals("Sugger + Milk", compiled.describe().get("addition"));
+		assertEquals(more.describe(), CompiledDecoratorPattern.compile(more).describe());
+	}
+}
@@ -0,0 +1,60 @@
+package adj.felix.java.patterns.ch02.structure.decorator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.Coffee;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.IDrinking;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.MilkToDrinking;
+import adj.felix.java.patterns.ch02.structure.decorator.DecoratorPattern.SugarToDrinking;
+import adj.felix.java.patterns.ch02.structure.decorator.PricingProgramPattern.CreamToDrinking;
+import adj.felix.java.patterns.ch02.structure.decorator.PricingProgramPattern.DiscountDrinking;
+import adj.felix.java.patterns.ch02.structure.decorator.PricingProgramPattern.PricingProgram;
+
+/**
+ * {@link PricingProgramPattern}计价程序与装饰链结果一致, 并可以被继续装饰。
+ */
+public class PricingProgramPatternTest {
+
+	@Test
+	public void programMatchesChain() {
+		Random random = new Random(7);
+		for (int i = 0; i < 500; i++) {
+			IDrinking chain = new Coffee("Latte", 20);
+			int depth = random.nextInt(12);
+			for (int j = 0; j < depth; j++) {
+				chain = PricingProgramPattern.decorate(chain, random.nextInt(6));
+			}
+			PricingProgram program = PricingProgramPattern.compile(chain);
+			assertEquals(depth, program.length());
+			assertEquals(chain.priceCents(), program.priceCents());
+			assertEquals(chain.price(), program.price(), 0);
+			assertEquals(chain.describe(), program.describe());
+		}
+	}
+
+	@Test
+	public void programCanBeDecorated() {
+		PricingProgram program = PricingProgramPattern.compile(new DiscountDrinking(new MilkToDrinking(new SugarToDrinking(new Coffee("Latte", 20))), 9000));
+		assertSame(program.describe(), program.describe());
+
+		IDrinking sugar = new SugarToDrinking(program);
+		IDrinking milk = new MilkToDrinking(program);
+		IDrinking cream = new CreamToDrinking(program);
+		assertEquals("Sugger + Milk + Sugger", sugar.describe().get("addition"));
+		assertEquals("Sugger + Milk + Milk", milk.describe().get("addition"));
+		assertEquals("Sugger + Milk + Cream", cream.describe().get("addition"));
+		assertEquals(2160 + 100, sugar.priceCents());
+		assertEquals(2160 + 200, cream.priceCents());
+		// 继续装饰不会修改计价程序的描述
+		assertEquals("Sugger + Milk", program.describe().get("addition"));
+
+		PricingProgram again = PricingProgramPattern.compile(new CreamToDrinking(sugar));
+		assertEquals("Sugger + Milk + Sugger + Cream", again.describe().get("addition"));
+		assertEquals(2160 + 300, again.priceCents());
+	}
+}
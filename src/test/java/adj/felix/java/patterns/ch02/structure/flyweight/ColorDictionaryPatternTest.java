@@ -0,0 +1,64 @@
+package adj.felix.java.patterns.ch02.structure.flyweight;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import adj.felix.java.patterns.ch02.structure.flyweight.ColorDictionaryPattern.DictionaryShapeFactory;
+import adj.felix.java.patterns.ch02.structure.flyweight.ColorDictionaryPattern.MemoryColorDictionary;
+import adj.felix.java.patterns.ch02.structure.flyweight.FlyweightPattern.Shape;
+
+/**
+ * {@link ColorDictionaryPattern.DictionaryShapeFactory}按编号取得的享元。
+ */
+public class ColorDictionaryPatternTest {
+
+	@Test
+	public void sameIdReturnsSameFlyweight() {
+		MemoryColorDictionary dictionary = new MemoryColorDictionary();
+		for (int i = 0; i < 10; i++) {
+			dictionary.intern("Color" + i);
+		}
+		DictionaryShapeFactory factory = new DictionaryShapeFactory(dictionary);
+		for (int id = 9; id >= 0; id--) {
+			Shape shape = factory.create(id);
+			assertSame(shape, factory.create(id));
+			assertSame(shape, factory.create("Color" + id));
+		}
+	}
+
+	@Test
+	public void colorsInternedLaterGrowTheFactory() {
+		MemoryColorDictionary dictionary = new MemoryColorDictionary();
+		DictionaryShapeFactory factory = new DictionaryShapeFactory(dictionary);
+		Shape[] shapes = new Shape[100000];
+		for (int id = 0; id < shapes.length; id++) {
+			assertEquals(id, dictionary.intern("Color" + id));
+			shapes[id] = factory.create(id);
+		}
+		// 扩容后此前创建的享元保持不变
+		for (int id = 0; id < shapes.length; id++) {
+			assertSame(shapes[id], factory.create("Color" + id));
+		}
+	}
+
+	@Test
+	public void unknownColorIsRejected() {
+		MemoryColorDictionary dictionary = new MemoryColorDictionary();
+		dictionary.intern("Red");
+		DictionaryShapeFactory factory = new DictionaryShapeFactory(dictionary);
+		try {
+			factory.create("Blue");
+			fail("Created a flyweight for an unknown color");
+		} catch (IllegalArgumentException expected) {
+		}
+		try {
+			factory.create(100);
+			fail("Created a flyweight for an unknown id");
+		} catch (IndexOutOfBoundsException expected) {
+		}
+		assertSame(factory.create(0), factory.create("Red"));
+	}
+}
@@ -0,0 +1,58 @@
+package adj.felix.java.patterns.ch02.structure.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+import adj.felix.java.patterns.ch02.structure.proxy.CachedCglibProxy.CglibProxyFactory;
+import adj.felix.java.patterns.ch02.structure.proxy.DynamicCglibProxy.Car;
+import adj.felix.java.patterns.ch02.structure.proxy.DynamicCglibProxy.CarJdkProxy;
+import adj.felix.java.patterns.ch02.structure.proxy.DynamicCglibProxy.Dispatch;
+import adj.felix.java.patterns.ch02.structure.proxy.MethodHandleJdkProxy.QuietCar;
+import net.sf.cglib.proxy.MethodInterceptor;
+import net.sf.cglib.proxy.MethodProxy;
+
+/**
+ * 同一"目标类 + 拦截器类型"只生成或加载一个代理类。
+ */
+public class CachedCglibProxyTest {
+	/** 另一种拦截器类型 **/
+	static class PassThrough implements MethodInterceptor {
+		@Override
+		public Object intercept(Object object, Method method, Object[] args, MethodProxy proxy) throws Throwable {
+			return proxy.invokeSuper(object, args);
+		}
+	}
+
+	@Test
+	public void sameKeyReusesOneClass() {
+		QuietCar first = CglibProxyFactory.newProxy(QuietCar.class, new CarJdkProxy(new QuietCar(), Dispatch.REFLECTION, false));
+		long classes = CglibProxyFactory.proxyClasses();
+
+		for (int i = 0; i < 100; i++) {
+			QuietCar target = new QuietCar();
+			QuietCar proxy = CglibProxyFactory.newProxy(QuietCar.class, new CarJdkProxy(target, i % 2 == 0 ? Dispatch.REFLECTION : Dispatch.FAST_CLASS, false));
+			assertSame(first.getClass(), proxy.getClass());
+			assertEquals(i + 1, proxy.drive(i + 1));
+			assertEquals(i + 1, target.drive(0));
+		}
+		assertEquals(classes, CglibProxyFactory.proxyClasses());
+		assertEquals(CglibProxyFactory.proxyName(QuietCar.class, CarJdkProxy.class), first.getClass().getName());
+	}
+
+	@Test
+	public void differentKeysUseDifferentClasses() {
+		Class<?> quietCar = CglibProxyFactory.newProxy(QuietCar.class, new CarJdkProxy(new QuietCar())).getClass();
+		Class<?> car = CglibProxyFactory.newProxy(Car.class, new CarJdkProxy(new Car())).getClass();
+		QuietCar passThrough = CglibProxyFactory.newProxy(QuietCar.class, new PassThrough());
+
+		assertNotSame(quietCar, car);
+		assertNotSame(quietCar, passThrough.getClass());
+		assertSame(passThrough.getClass(), CglibProxyFactory.newProxy(QuietCar.class, new PassThrough()).getClass());
+		assertEquals(5, passThrough.drive(5));
+	}
+}
@@ -0,0 +1,78 @@
+package adj.felix.java.patterns.ch02.structure.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+
+import org.junit.Test;
+
+import adj.felix.java.patterns.ch02.structure.proxy.DynamicJdkProxy.CarJdkProxy;
+import adj.felix.java.patterns.ch02.structure.proxy.DynamicJdkProxy.Moveable;
+import adj.felix.java.patterns.ch02.structure.proxy.MethodHandleJdkProxy.MethodHandleInvocationHandler;
+import adj.felix.java.patterns.ch02.structure.proxy.MethodHandleJdkProxy.Odometer;
+import adj.felix.java.patterns.ch02.structure.proxy.MethodHandleJdkProxy.QuietCar;
+
+/**
+ * Jdk动态代理的处理器须返回目标方法的返回值。
+ */
+public class DynamicJdkProxyTest {
+	/** 抛出受检异常的Subject **/
+	interface Engine {
+		public String start() throws Exception;
+	}
+
+	private static Odometer proxy(InvocationHandler handler) {
+		return (Odometer) Proxy.newProxyInstance(Odometer.class.getClassLoader(), new Class<?>[] { Moveable.class, Odometer.class }, handler);
+	}
+
+	@Test
+	public void carProxyReturnsTargetValue() {
+		QuietCar car = new QuietCar();
+		Odometer odometer = proxy(new CarJdkProxy(car));
+
+		assertEquals(12, odometer.drive(12));
+		assertEquals(20, odometer.drive(8));
+		assertEquals(20, car.drive(0));
+		assertEquals(car.toString(), odometer.toString());
+	}
+
+	@Test
+	public void methodHandleProxyReturnsTargetValue() {
+		QuietCar car = new QuietCar();
+		Odometer odometer = proxy(new MethodHandleInvocationHandler(car));
+
+		for (int i = 1; i <= 100; i++) {
+			assertEquals(i * 3, odometer.drive(3));
+		}
+		((Moveable) odometer).move("School");
+		assertEquals(car.toString(), odometer.toString());
+		assertEquals(car.hashCode(), odometer.hashCode());
+	}
+
+	@Test
+	public void methodHandleProxyReturnsNullForVoid() throws Throwable {
+		MethodHandleInvocationHandler handler = new MethodHandleInvocationHandler(new QuietCar());
+		Moveable moveable = handler.newProxy(Moveable.class);
+
+		assertNull(handler.invoke(moveable, Moveable.class.getMethod("move", String.class), new Object[] { "School" }));
+	}
+
+	@Test
+	public void methodHandleProxyThrowsTargetException() {
+		Exception failure = new Exception("No fuel");
+		Engine engine = new MethodHandleInvocationHandler((Engine) () -> {
+			throw failure;
+		}).newProxy(Engine.class);
+
+		try {
+			engine.start();
+			fail("Exception not propagated");
+		} catch (Exception e) {
+			assertSame(failure, e);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package adj.felix.java.patterns.ch02.structure.proxy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import org.junit.Test;
+
+import adj.felix.java.patterns.ch02.structure.proxy.InstrumentedProxy.FlakyCar;
+import adj.felix.java.patterns.ch02.structure.proxy.InstrumentedProxy.MethodStats;
+import adj.felix.java.patterns.ch02.structure.proxy.InstrumentedProxy.Metrics;
+import adj.felix.java.patterns.ch02.structure.proxy.MethodHandleJdkProxy.Odometer;
+
+/**
+ * {@link InstrumentedProxy}多线程记录的合并及耗时百分位数。
+ */
+public class InstrumentedProxyTest {
+
+	@Test
+	public void snapshotMergesAllThreads() throws Exception {
+		Metrics metrics = new Metrics();
+		// 多于记录器的初始容量(4个方法), 各线程的记录器都要扩容
+		Method[] methods = Object.class.getMethods();
+		int threads = 8;
+		int calls = 20000;
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			int index = t;
+			workers[t] = new Thread(() -> {
+				for (int i = 0; i < calls; i++) {
+					Method method = methods[(i + index) % methods.length];
+					metrics.record(metrics.id(method), 1L << (i % 10), i % 100 == 0);
+				}
+			});
+			workers[t].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+
+		Map<String, MethodStats> snapshot = metrics.snapshot();
+		assertEquals(methods.length, snapshot.size());
+		long count = 0;
+		long errors = 0;
+		long total = 0;
+		long[] buckets = new long[64];
+		for (MethodStats stats : snapshot.values()) {
+			count += stats.count;
+			errors += stats.errors;
+			total += stats.totalNanos;
+			for (int i = 0; i < 64; i++) {
+				buckets[i] += stats.buckets[i];
+			}
+		}
+		assertEquals(threads * calls, count);
+		assertEquals(threads * calls / 100, errors);
+		long[] expectBuckets = new long[64];
+		long expectTotal = 0;
+		for (int i = 0; i < calls; i++) {
+			expectBuckets[i % 10] += threads;
+			expectTotal += (1L << (i % 10)) * threads;
+		}
+		assertEquals(expectTotal, total);
+		assertArrayEquals(expectBuckets, buckets);
+	}
+
+	@Test
+	public void proxyRecordsCallsAndErrors() {
+		Metrics metrics = new Metrics();
+		Odometer odometer = InstrumentedProxy.jdkProxy(Odometer.class, new FlakyCar(), metrics);
+		for (int i = 0; i < 10; i++) {
+			odometer.drive(1);
+		}
+		try {
+			odometer.drive(-1);
+			fail("Target exception not propagated");
+		} catch (IllegalArgumentException expected) {
+		}
+
+		MethodStats stats = metrics.snapshot().get("Odometer.drive(int)");
+		assertEquals(11, stats.count);
+		assertEquals(1, stats.errors);
+	}
+
+	@Test
+	public void percentileReturnsBucketUpperBound() {
+		long[] buckets = new long[64];
+		buckets[3] = 50; // [8, 16)
+		buckets[6] = 49; // [64, 128)
+		buckets[20] = 1; // [2^20, 2^21)
+		MethodStats stats = new MethodStats("m", 100, 0, 0, buckets);
+
+		assertEquals(15, stats.percentile(1));
+		assertEquals(15, stats.percentile(50));
+		assertEquals(127, stats.percentile(50.5));
+		assertEquals(127, stats.percentile(99));
+		assertEquals((1L << 21) - 1, stats.percentile(99.9));
+		assertEquals((1L << 21) - 1, stats.percentile(100));
+	}
+
+	@Test
+	public void percentileOfEdgeBuckets() {
+		assertEquals(0, new MethodStats("empty", 0, 0, 0, new long[64]).percentile(99));
+
+		long[] buckets = new long[64];
+		buckets[0] = 1; // 0或1纳秒
+		buckets[63] = 1;
+		MethodStats stats = new MethodStats("m", 2, 0, 0, buckets);
+		assertEquals(1, stats.percentile(50));
+		assertEquals(Long.MAX_VALUE, stats.percentile(100));
+	}
+}